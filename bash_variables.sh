@@ -14,6 +14,9 @@ CODE_SUBDIR=code
 SSH_USER=dsv
 SSH_PASS=dsv
 
+# Build an AppCDS class archive on each VM after deployment (faster node startup/restart)
+USE_APPCDS=1
+
 ### 3. NODE DEFINITIONS
 NUM_NODES=5
 BASE_PORT=2010
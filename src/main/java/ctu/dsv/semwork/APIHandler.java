@@ -1,21 +1,41 @@
 package ctu.dsv.semwork;
 
 import io.javalin.Javalin;
+import io.javalin.http.ServiceUnavailableResponse;
+import io.javalin.http.sse.SseClient;
 
 public class APIHandler {
-    private final NodeImpl node;
+    private static final long SSE_HEARTBEAT_MS = 15_000;
+    private static final long SNAPSHOT_TIMEOUT_MS = 5_000;
+
     private final int port;
-    private Javalin app;
+    private volatile NodeImpl node;
+    private volatile boolean ready;
+    private volatile Javalin app;
 
-    public APIHandler(NodeImpl node, int port) {
-        this.node = node;
+    /** The server can start before the node exists; every endpoint except /ready answers 503 until {@link #markReady}. */
+    public APIHandler(int port) {
         this.port = port;
     }
 
+    /** Attaches the node once it is bound in RMI and opens the API for requests. */
+    public void markReady(NodeImpl node) {
+        this.node = node;
+        this.ready = true;
+    }
+
     public void start() {
-        app = Javalin.create().start(port);
+        app = Javalin.create(); // routes are registered before start(), so the gate and /ready answer from the first request
 
-        System.out.println("REST API started on port " + port);
+        app.before(ctx -> {
+            if (!ready && !ctx.path().equals("/ready"))
+                throw new ServiceUnavailableResponse("Node is starting, not bound in RMI yet");
+        });
+
+        app.get("/ready", ctx -> {
+            if (ready) ctx.result("ready");
+            else ctx.status(503).result("starting");
+        });
 
         app.post("/join/{ip}/{port}", ctx -> {
             String ip = ctx.pathParam("ip");
@@ -52,20 +72,65 @@ public class APIHandler {
             ctx.result("Message delay set to " + ms + "ms");
         });
 
+        app.get("/fault", ctx -> ctx.result(node.getFaultInjector().describe()));
+
+        app.post("/fault", ctx -> {
+            try {
+                String peer = ctx.queryParam("peer");
+                String type = ctx.queryParam("type");
+                String dist = ctx.queryParam("dist");
+                FaultInjector.Profile profile = new FaultInjector.Profile(
+                        dist == null ? FaultInjector.Distribution.FIXED : FaultInjector.Distribution.valueOf(dist.toUpperCase()),
+                        intParam(ctx.queryParam("base")),
+                        intParam(ctx.queryParam("jitter")),
+                        doubleParam(ctx.queryParam("drop")),
+                        doubleParam(ctx.queryParam("reorder")));
+                node.getFaultInjector().setRule(
+                        peer == null ? null : Long.parseLong(peer),
+                        type == null ? null : FaultInjector.MessageType.valueOf(type.toUpperCase()),
+                        profile);
+                ctx.result("Fault rule set for peer=" + (peer == null ? "*" : peer) + " type=" + (type == null ? "*" : type) + ": " + profile);
+            } catch (IllegalArgumentException e) {
+                ctx.status(400).result("Invalid fault rule: " + e.getMessage());
+            }
+        });
+
+        app.delete("/fault", ctx -> {
+            node.getFaultInjector().clear();
+            ctx.result("Fault rules cleared.");
+        });
+
         app.post("/detect", ctx -> {
             node.detectDeadNodes();
             ctx.result("Failure detection cycle triggered.");
         });
 
         app.post("/enter-cs", ctx -> {
+            String timeout = ctx.queryParam("timeout");
             try { // run this in a blocking way so the HTTP response confirms entry
-                node.enterCS();
-                ctx.result("Entered Critical Section");
+                if (timeout == null) {
+                    node.enterCS();
+                    ctx.result("Entered Critical Section");
+                } else if (node.tryEnterCS(Long.parseLong(timeout))) {
+                    ctx.result("Entered Critical Section");
+                } else {
+                    ctx.status(408).result("Timed out after " + timeout + "ms, request cancelled");
+                }
+            } catch (AdmissionRejectedException e) {
+                ctx.status(503).result(e.getMessage());
+            } catch (RequestAbandonedException e) {
+                ctx.status(409).result(e.getMessage());
             } catch (Exception e) {
                 ctx.status(500).result("Error entering CS: " + e.getMessage());
             }
         });
 
+        app.post("/admission/{depth}", ctx -> {
+            int depth = Integer.parseInt(ctx.pathParam("depth"));
+            node.setMaxQueueDepth(depth);
+            ctx.result(depth > 0 ? "Admission limit set to queue depth " + depth : "Admission control disabled");
+        });
+
         app.post("/leave-cs", ctx -> {
             node.leaveCS();
             ctx.result("Left Critical Section");
@@ -79,6 +144,13 @@ public class APIHandler {
             ctx.result("Shared variable set to " + val);
         });
 
+        app.sse("/events", this::streamEvents);
+
+        app.get("/snapshot", ctx -> {
+            String timeout = ctx.queryParam("timeout");
+            ctx.json(node.takeSnapshot(timeout == null ? SNAPSHOT_TIMEOUT_MS : Long.parseLong(timeout)));
+        });
+
         app.get("/status", ctx -> {
             String sb = "Node ID: " + node.getNodeId() + "\n" +
                     "Clock: " + node.getLogicalClock() + "\n" +
@@ -87,8 +159,46 @@ public class APIHandler {
                     "Known Nodes: " + node.getKnownNodes() + "\n";
             ctx.result(sb);
         });
+
+        app.start(port);
+        System.out.println("REST API started on port " + port);
     }
 
+    /**
+     * Streams node events to one SSE client. The client gets its own bounded buffer, drained on a
+     * dedicated thread, so a slow reader never holds up the node; if it overflows, the client receives
+     * an "overflow" event and is disconnected.
+     */
+    private void streamEvents(SseClient client) {
+        EventBus.Subscription subscription = node.getEventBus().subscribe();
+        client.keepAlive();
+        client.onClose(subscription::close);
+
+        Thread sender = new Thread(() -> {
+            try {
+                while (!subscription.isClosed()) {
+                    EventBus.Event event = subscription.poll(SSE_HEARTBEAT_MS);
+                    if (event != null) client.sendEvent(event.type.name(), event.toJson());
+                    else if (!subscription.isClosed()) client.sendComment("keep-alive");
+                }
+                if (subscription.isOverflowed())
+                    client.sendEvent("overflow", "{\"reason\":\"subscriber too slow, reconnect and resync via /status\"}");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException ignored) { // client went away mid-write
+            } finally {
+                subscription.close();
+                client.close();
+            }
+        }, "sse-subscriber");
+        sender.setDaemon(true);
+        sender.start();
+    }
+
+    private static int intParam(String value) { return value == null ? 0 : Integer.parseInt(value); }
+
+    private static double doubleParam(String value) { return value == null ? 0 : Double.parseDouble(value); }
+
     public void stop() {
         if (app != null) app.stop();
     }
@@ -0,0 +1,18 @@
+package ctu.dsv.semwork;
+
+import java.io.Serial;
+import java.rmi.RemoteException;
+
+/**
+ * Thrown when a critical section request is refused up front because the request queue
+ * is already at the configured admission limit.
+ */
+public class AdmissionRejectedException extends RemoteException {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    public AdmissionRejectedException(String message) {
+        super(message);
+    }
+}
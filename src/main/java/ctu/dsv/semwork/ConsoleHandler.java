@@ -57,10 +57,19 @@ public class ConsoleHandler implements Runnable {
                     myNode.detectDeadNodes();
                     break;
                 case "req":
+                    long timeoutMs = parts.length >= 2 ? Long.parseLong(parts[1]) : -1;
                     new Thread(() -> {
-                        try { myNode.enterCS(); } catch (Exception ignored) { }
+                        try {
+                            if (timeoutMs < 0) myNode.enterCS();
+                            else myNode.tryEnterCS(timeoutMs);
+                        } catch (Exception e) { err.println("Error: " + e.getMessage()); }
                     }).start();
                     break;
+                case "a":
+                    if (parts.length < 2)
+                        break;
+                    myNode.setMaxQueueDepth(Integer.parseInt(parts[1]));
+                    break;
                 case "rel":
                     myNode.leaveCS();
                     break;
@@ -84,6 +93,7 @@ public class ConsoleHandler implements Runnable {
             out.println("Known Nodes: " + myNode.getKnownNodes().size());
             myNode.getKnownNodes().forEach(id -> out.println("Node ID: " + id));
             out.println("Message Delay: " + myNode.getMessageDelayMs() + "ms");
+            out.println("Admission Limit: " + myNode.getMaxQueueDepth());
             out.println("Shared Variable: " + myNode.getSharedVariable());
         } catch (Exception e) { err.println("Error: " + e.getMessage()); }
     }
@@ -91,12 +101,13 @@ public class ConsoleHandler implements Runnable {
     private void printHelp() {
         out.println("j <host> <port>       - Join network via node");
         out.println("l                     - Leave network");
-        out.println("req                   - Request critical section");
+        out.println("req [timeout_ms]      - Request critical section");
         out.println("rel                   - Release critical section");
         out.println("v <value>             - Set shared variable");
         out.println("s                     - Show node status");
         out.println("c                     - Show logical clock");
         out.println("d <ms>                - Set message delay");
+        out.println("a <depth>             - Set admission queue limit (0 = off)");
         out.println("k                     - Simulate node crash");
         out.println("rev                   - Revive crashed node");
         out.println("det                   - Detect dead nodes");
@@ -0,0 +1,129 @@
+package ctu.dsv.semwork;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fan-out of node events to monitoring subscribers.
+ * Publishing never blocks protocol threads: each subscriber has a bounded buffer, and a subscriber
+ * that falls behind is disconnected (marked overflowed) instead of slowing the publisher down.
+ * Nothing is allocated while there are no subscribers.
+ */
+public class EventBus {
+
+    public enum EventType {
+        REQUEST_ENQUEUED, REPLY_RECEIVED, RELEASE_RECEIVED, REQUEST_CANCELLED,
+        CS_ENTERED, CS_LEFT, VARIABLE_UPDATED, NODE_ADDED, NODE_REMOVED, NODE_DEAD
+    }
+
+    public static final int DEFAULT_BUFFER_SIZE = 1024;
+
+    private final long nodeId;
+    private final int bufferSize;
+    private final List<Subscription> subscribers = new CopyOnWriteArrayList<>();
+
+    public EventBus(long nodeId) {
+        this(nodeId, DEFAULT_BUFFER_SIZE);
+    }
+
+    public EventBus(long nodeId, int bufferSize) {
+        this.nodeId = nodeId;
+        this.bufferSize = bufferSize;
+    }
+
+    public Subscription subscribe() {
+        Subscription subscription = new Subscription(bufferSize);
+        subscribers.add(subscription);
+        return subscription;
+    }
+
+    public int getSubscriberCount() { return subscribers.size(); }
+
+    /** Publishes an event concerning a peer, such as a membership change. */
+    public void publish(EventType type, int clock, long peerId) {
+        if (!subscribers.isEmpty()) dispatch(new Event(type, nodeId, clock, peerId, null, null));
+    }
+
+    /** Publishes an event concerning a peer (or this node) and a message timestamp. */
+    public void publish(EventType type, int clock, long peerId, int timestamp) {
+        if (!subscribers.isEmpty()) dispatch(new Event(type, nodeId, clock, peerId, timestamp, null));
+    }
+
+    /** Publishes a shared variable change written by the given source node. */
+    public void publishValue(EventType type, int clock, long sourceNodeId, int value) {
+        if (!subscribers.isEmpty()) dispatch(new Event(type, nodeId, clock, sourceNodeId, null, value));
+    }
+
+    private void dispatch(Event event) {
+        for (Subscription subscription : subscribers) {
+            if (!subscription.buffer.offer(event)) {
+                subscription.overflowed = true;
+                subscription.close();
+            }
+        }
+    }
+
+    /** A subscriber's bounded event buffer; drained by the subscriber's own thread. */
+    public final class Subscription implements AutoCloseable {
+        private final ArrayBlockingQueue<Event> buffer;
+        private volatile boolean overflowed;
+        private volatile boolean closed;
+
+        private Subscription(int capacity) {
+            this.buffer = new ArrayBlockingQueue<>(capacity);
+        }
+
+        /** Returns the next event, or null if none arrived within the timeout or the subscription is closed. */
+        public Event poll(long timeoutMs) throws InterruptedException {
+            Event event = buffer.poll();
+            if (event != null || closed) return event;
+            return buffer.poll(timeoutMs, TimeUnit.MILLISECONDS);
+        }
+
+        /** True once the buffer filled up and the subscriber was dropped for being too slow. */
+        public boolean isOverflowed() { return overflowed; }
+
+        public boolean isClosed() { return closed; }
+
+        @Override
+        public void close() {
+            closed = true;
+            subscribers.remove(this);
+        }
+    }
+
+    /** Immutable event; absent fields are null and omitted from the JSON form. */
+    public static final class Event {
+        public final EventType type;
+        public final long nodeId;
+        public final int clock;
+        public final long time;
+        public final Long peerId;
+        public final Integer timestamp;
+        public final Integer value;
+
+        Event(EventType type, long nodeId, int clock, Long peerId, Integer timestamp, Integer value) {
+            this.type = type;
+            this.nodeId = nodeId;
+            this.clock = clock;
+            this.time = System.currentTimeMillis();
+            this.peerId = peerId;
+            this.timestamp = timestamp;
+            this.value = value;
+        }
+
+        public String toJson() {
+            StringBuilder sb = new StringBuilder(128)
+                    .append("{\"type\":\"").append(type)
+                    .append("\",\"nodeId\":").append(nodeId)
+                    .append(",\"clock\":").append(clock)
+                    .append(",\"time\":").append(time);
+            if (peerId != null) sb.append(",\"peerId\":").append(peerId);
+            if (timestamp != null) sb.append(",\"timestamp\":").append(timestamp);
+            if (value != null) sb.append(",\"value\":").append(value);
+            return sb.append('}').toString();
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package ctu.dsv.semwork;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Simulated network between this node and its peers.
+ * Every outgoing protocol message is scheduled for delayed delivery instead of sleeping on the sending
+ * or receiving thread. Messages to the same peer are delivered in order on a per-peer lane (FIFO channel),
+ * unless a reorder fault lets a message bypass the lane. Delay, drop and reorder settings can be set
+ * globally, per peer, per message type, or per peer and message type.
+ * Snapshot markers are delayed like any other message but never dropped or reordered: Chandy-Lamport
+ * needs every marker to arrive and to stay behind the messages sent before it.
+ */
+public class FaultInjector {
+
+    public enum MessageType { REQUEST, REPLY, RELEASE, CANCEL, UPDATE, MARKER }
+
+    public enum Distribution { FIXED, UNIFORM, NORMAL, PARETO }
+
+    /** Pareto shape used for heavy-tailed jitter; with 2.0 the mean extra delay equals the jitter value. */
+    private static final double PARETO_SHAPE = 2.0;
+    private static final long MAX_DELAY_MS = 60_000;
+
+    private final ScheduledExecutorService timer;
+    private final ExecutorService deliveryPool;
+    private final Map<Long, Lane> lanes = new ConcurrentHashMap<>();
+    private final Map<String, Profile> rules = new ConcurrentHashMap<>();
+    private volatile Profile defaultProfile = Profile.NONE;
+
+    public FaultInjector() {
+        this.timer = Executors.newSingleThreadScheduledExecutor(daemonFactory("fault-timer"));
+        this.deliveryPool = Executors.newCachedThreadPool(daemonFactory("fault-delivery"));
+    }
+
+    /**
+     * Schedules delivery of a message to a peer according to the matching profile. Never blocks.
+     * @return false if the message was dropped by fault injection.
+     */
+    public boolean send(long peerId, MessageType type, Runnable delivery) {
+        Profile profile = profileFor(peerId, type);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        boolean faultable = type != MessageType.MARKER;
+
+        if (faultable && profile.dropProbability > 0 && random.nextDouble() < profile.dropProbability)
+            return false;
+
+        long delayNanos = TimeUnit.MILLISECONDS.toNanos(profile.sampleDelayMs(random));
+        if (faultable && profile.reorderProbability > 0 && random.nextDouble() < profile.reorderProbability) {
+            timer.schedule(() -> deliveryPool.execute(delivery), delayNanos, TimeUnit.NANOSECONDS);
+            return true;
+        }
+        lanes.computeIfAbsent(peerId, id -> new Lane()).enqueue(delivery, delayNanos);
+        return true;
+    }
+
+    /** Runs a delivery right away on a delivery thread, outside the simulated network: no lane, delay or faults. */
+    public void deliverDirect(Runnable delivery) {
+        deliveryPool.execute(delivery);
+    }
+
+    /** Sets the profile used when no per-peer or per-type rule matches. */
+    public void setDefaultProfile(Profile profile) { this.defaultProfile = profile; }
+
+    public Profile getDefaultProfile() { return defaultProfile; }
+
+    /**
+     * Sets a rule for a peer and/or a message type.
+     * @param peerId The peer the rule applies to, or null for all peers.
+     * @param type The message type the rule applies to, or null for all types.
+     */
+    public void setRule(Long peerId, MessageType type, Profile profile) {
+        if (peerId == null && type == null) setDefaultProfile(profile);
+        else rules.put(ruleKey(peerId, type), profile);
+    }
+
+    /** Removes all rules and resets the default profile to an ideal network. */
+    public void clear() {
+        rules.clear();
+        defaultProfile = Profile.NONE;
+    }
+
+    /** Returns a readable listing of the default profile and all rules. */
+    public String describe() {
+        StringBuilder sb = new StringBuilder("default: ").append(defaultProfile).append('\n');
+        new TreeMap<>(rules).forEach((key, profile) -> sb.append(key).append(": ").append(profile).append('\n'));
+        return sb.toString();
+    }
+
+    public void shutdown() {
+        timer.shutdownNow();
+        deliveryPool.shutdownNow();
+    }
+
+    private Profile profileFor(long peerId, MessageType type) {
+        if (rules.isEmpty()) return defaultProfile;
+        Profile profile = rules.get(ruleKey(peerId, type));
+        if (profile == null) profile = rules.get(ruleKey(peerId, null));
+        if (profile == null) profile = rules.get(ruleKey(null, type));
+        return profile != null ? profile : defaultProfile;
+    }
+
+    private static String ruleKey(Long peerId, MessageType type) {
+        return (peerId == null ? "*" : peerId.toString()) + "/" + (type == null ? "*" : type.name());
+    }
+
+    private static ThreadFactory daemonFactory(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * FIFO channel to one peer. Due times are clamped to be non-decreasing, so the queue is ordered
+     * by due time and a message is never delivered before one sent earlier on the same lane.
+     */
+    private final class Lane {
+        private final ArrayDeque<Pending> queue = new ArrayDeque<>();
+        private long lastDueNanos = Long.MIN_VALUE;
+        private boolean draining;
+
+        void enqueue(Runnable delivery, long delayNanos) {
+            long now = System.nanoTime();
+            synchronized (this) {
+                long due = lastDueNanos == Long.MIN_VALUE ? now + delayNanos : Math.max(now + delayNanos, lastDueNanos);
+                lastDueNanos = due;
+                queue.add(new Pending(due, delivery));
+                delayNanos = due - now;
+            }
+            if (delayNanos <= 0) pump();
+            else timer.schedule(this::pump, delayNanos, TimeUnit.NANOSECONDS);
+        }
+
+        private void pump() {
+            synchronized (this) {
+                if (draining) return;
+                draining = true;
+            }
+            deliveryPool.execute(this::drain);
+        }
+
+        private void drain() {
+            while (true) {
+                Pending next;
+                synchronized (this) {
+                    next = queue.peek();
+                    if (next == null || next.dueNanos - System.nanoTime() > 0) {
+                        draining = false;
+                        return;
+                    }
+                    queue.poll();
+                }
+                try { next.delivery.run(); } catch (RuntimeException ignored) {}
+            }
+        }
+    }
+
+    private static final class Pending {
+        final long dueNanos;
+        final Runnable delivery;
+
+        Pending(long dueNanos, Runnable delivery) {
+            this.dueNanos = dueNanos;
+            this.delivery = delivery;
+        }
+    }
+
+    /** Immutable link behaviour: delay distribution plus drop and reorder probabilities. */
+    public static final class Profile {
+        public static final Profile NONE = new Profile(Distribution.FIXED, 0, 0, 0, 0);
+
+        public final Distribution distribution;
+        public final int baseMs;
+        public final int jitterMs;
+        public final double dropProbability;
+        public final double reorderProbability;
+
+        public Profile(Distribution distribution, int baseMs, int jitterMs, double dropProbability, double reorderProbability) {
+            if (baseMs < 0 || jitterMs < 0)
+                throw new IllegalArgumentException("Delay and jitter must not be negative");
+            if (dropProbability < 0 || dropProbability > 1 || reorderProbability < 0 || reorderProbability > 1)
+                throw new IllegalArgumentException("Probabilities must be within [0, 1]");
+            this.distribution = distribution;
+            this.baseMs = baseMs;
+            this.jitterMs = jitterMs;
+            this.dropProbability = dropProbability;
+            this.reorderProbability = reorderProbability;
+        }
+
+        public static Profile fixed(int delayMs) {
+            return new Profile(Distribution.FIXED, delayMs, 0, 0, 0);
+        }
+
+        long sampleDelayMs(Random random) {
+            double delay = switch (distribution) {
+                case FIXED -> baseMs;
+                case UNIFORM -> baseMs + (random.nextDouble() * 2 - 1) * jitterMs;
+                case NORMAL -> baseMs + random.nextGaussian() * jitterMs;
+                case PARETO -> baseMs + jitterMs * (Math.pow(1 - random.nextDouble(), -1 / PARETO_SHAPE) - 1);
+            };
+            return Math.min(MAX_DELAY_MS, Math.max(0, Math.round(delay)));
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s base=%dms jitter=%dms drop=%.3f reorder=%.3f",
+                    distribution, baseMs, jitterMs, dropProbability, reorderProbability);
+        }
+    }
+}
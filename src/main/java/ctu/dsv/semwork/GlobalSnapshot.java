@@ -0,0 +1,128 @@
+package ctu.dsv.semwork;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Consistent global state assembled from the local snapshots of all nodes,
+ * with automatic checks for mutual exclusion violations, deadlock and starvation.
+ */
+public class GlobalSnapshot {
+    /** A waiting request this many clock ticks older than the newest clock in the cluster is reported as starving. */
+    static final int STARVATION_CLOCK_GAP = 500;
+
+    public final long snapshotId;
+    public final long initiatorId;
+    public final boolean complete;
+    public final List<Long> missingNodes;
+    public final List<LocalSnapshot> nodes;
+    public final List<Long> csHolders = new ArrayList<>();
+    public final List<Long> waitingNodes = new ArrayList<>();
+    public final int inFlightMessages;
+    public final boolean mutualExclusionViolated;
+    public final boolean deadlockSuspected;
+    public final List<String> findings = new ArrayList<>();
+
+    GlobalSnapshot(long snapshotId, long initiatorId, Collection<LocalSnapshot> reports, Collection<Long> missingNodes) {
+        this.snapshotId = snapshotId;
+        this.initiatorId = initiatorId;
+        this.nodes = new ArrayList<>(reports);
+        this.nodes.sort(Comparator.comparingLong(n -> n.nodeId));
+        this.missingNodes = new ArrayList<>(missingNodes);
+        this.complete = missingNodes.isEmpty();
+
+        Map<Long, LocalSnapshot> byId = new HashMap<>();
+        int inFlight = 0;
+        int maxClock = 0;
+        for (LocalSnapshot node : nodes) {
+            byId.put(node.nodeId, node);
+            inFlight += node.inFlightCount();
+            maxClock = Math.max(maxClock, node.clock);
+            if (node.inCriticalSection) csHolders.add(node.nodeId);
+            else if (node.wantCS) waitingNodes.add(node.nodeId);
+        }
+        this.inFlightMessages = inFlight;
+        this.mutualExclusionViolated = csHolders.size() > 1;
+        if (mutualExclusionViolated)
+            findings.add("MUTUAL EXCLUSION VIOLATED: nodes " + csHolders + " are in the critical section at once");
+        if (!complete)
+            findings.add("Incomplete snapshot, no report from " + missingNodes + "; checks below are partial");
+
+        findStaleEntries(byId);
+
+        this.deadlockSuspected = complete && csHolders.isEmpty() && inFlight == 0 && !waitingNodes.isEmpty();
+        if (deadlockSuspected) {
+            findings.add("DEADLOCK: nobody holds the critical section and no messages are in flight, but nodes "
+                    + waitingNodes + " are waiting");
+            for (long waiting : waitingNodes) {
+                LocalSnapshot node = byId.get(waiting);
+                Request head = node.queue.isEmpty() ? null : node.queue.get(0);
+                if (head != null && head.nodeId != waiting)
+                    findings.add("  Node " + waiting + " is blocked behind " + head);
+                else
+                    findings.add("  Node " + waiting + " is at its queue head but lacks replies from some peers");
+            }
+        }
+
+        for (long waiting : waitingNodes) {
+            Request own = byId.get(waiting).ownRequest();
+            if (own != null && maxClock - own.timestamp > STARVATION_CLOCK_GAP)
+                findings.add("STARVATION: request " + own + " has waited " + (maxClock - own.timestamp)
+                        + " clock ticks (newest clock " + maxClock + ")");
+        }
+    }
+
+    /** Reports queue entries whose owner no longer has the request and whose RELEASE/CANCEL is not in flight. */
+    private void findStaleEntries(Map<Long, LocalSnapshot> byId) {
+        for (LocalSnapshot node : nodes) {
+            for (Request r : node.queue) {
+                if (r.nodeId == node.nodeId) continue;
+                LocalSnapshot owner = byId.get(r.nodeId);
+                if (owner == null) {
+                    if (complete) findings.add("STALE: node " + node.nodeId + " holds " + r + " from a node outside the snapshot");
+                    continue;
+                }
+                List<String> inFlight = node.channels.getOrDefault(r.nodeId, List.of());
+                if (!owner.queue.contains(r) && inFlight.isEmpty())
+                    findings.add("STALE: node " + node.nodeId + " holds " + r + " which its owner no longer has");
+            }
+        }
+    }
+
+    /** Initiator-side collection of local snapshot reports for one snapshot. */
+    static final class Collector {
+        final long snapshotId;
+        final Set<Long> expected;
+        final Map<Long, LocalSnapshot> reports = new ConcurrentHashMap<>();
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Collector(long snapshotId, Collection<Long> expected) {
+            this.snapshotId = snapshotId;
+            this.expected = ConcurrentHashMap.newKeySet();
+            this.expected.addAll(expected);
+        }
+
+        void report(LocalSnapshot state) {
+            reports.put(state.nodeId, state);
+            checkDone();
+        }
+
+        /** Stops waiting for a node that left the topology. */
+        void forget(long nodeId) {
+            expected.remove(nodeId);
+            checkDone();
+        }
+
+        private void checkDone() {
+            if (reports.keySet().containsAll(expected)) done.complete(null);
+        }
+
+        GlobalSnapshot assemble(long initiatorId) {
+            List<Long> missing = new ArrayList<>();
+            for (Long id : expected) if (!reports.containsKey(id)) missing.add(id);
+            Collections.sort(missing);
+            return new GlobalSnapshot(snapshotId, initiatorId, reports.values(), missing);
+        }
+    }
+}
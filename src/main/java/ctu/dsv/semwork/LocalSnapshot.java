@@ -0,0 +1,49 @@
+package ctu.dsv.semwork;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * State of one node recorded during a distributed snapshot, plus the messages that were
+ * in flight towards it (channel state, keyed by sender) when the snapshot was taken.
+ */
+public class LocalSnapshot implements Serializable {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    public final long nodeId;
+    public final int clock;
+    public final boolean inCriticalSection;
+    public final boolean wantCS;
+    public final int sharedVariable;
+    public final List<Request> queue;
+    public final List<Long> knownNodes;
+    public final Map<Long, List<String>> channels;
+
+    public LocalSnapshot(long nodeId, int clock, boolean inCriticalSection, boolean wantCS, int sharedVariable,
+                         List<Request> queue, List<Long> knownNodes, Map<Long, List<String>> channels) {
+        this.nodeId = nodeId;
+        this.clock = clock;
+        this.inCriticalSection = inCriticalSection;
+        this.wantCS = wantCS;
+        this.sharedVariable = sharedVariable;
+        this.queue = queue;
+        this.knownNodes = knownNodes;
+        this.channels = channels;
+    }
+
+    /** Returns this node's own earliest request in its queue, or null if it has none. */
+    public Request ownRequest() {
+        for (Request r : queue) if (r.nodeId == nodeId) return r;
+        return null;
+    }
+
+    public int inFlightCount() {
+        int count = 0;
+        for (List<String> messages : channels.values()) count += messages.size();
+        return count;
+    }
+}
@@ -0,0 +1,505 @@
+package ctu.dsv.semwork;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Offline analyzer for the node_&lt;id&gt;.log files written by {@link Logger}.
+ * Streams any number of log files through fixed-size memory-mapped windows, merges them into one trace
+ * ordered by (logical clock, node id), checks mutual exclusion and prints acquisition statistics.
+ * Memory use does not depend on the size of the logs.
+ * <p>
+ * Logs are appended to across restarts, and every process starts its clock again at 0 ("Node created").
+ * Each file is therefore split into lifetimes, and only lifetimes that overlap in wall-clock time are merged
+ * by logical clock; such a session is one connected execution whose clocks are comparable. Sessions are
+ * analyzed one after another in wall-clock order.
+ * <p>
+ * Usage: {@code java -cp semwork.jar ctu.dsv.semwork.LogAnalyzer [--trace trace.json] node_*.log}
+ */
+public class LogAnalyzer {
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+
+    private final PrintStream out;
+    private final Map<Long, NodeStats> nodes = new TreeMap<>();
+    private final Histogram acquisitionLatency = new Histogram();
+    private final Histogram queueWait = new Histogram();
+    private final Histogram holdTime = new Histogram();
+    private final List<String> violations = new ArrayList<>();
+    private final TraceWriter trace;
+
+    private long holder = -1;
+    private long totalGrants;
+    private long totalLines;
+    private long malformedLines;
+
+    public LogAnalyzer(PrintStream out, TraceWriter trace) {
+        this.out = out;
+        this.trace = trace;
+    }
+
+    public static void main(String[] args) {
+        Path tracePath = null;
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--trace") && i + 1 < args.length) tracePath = Path.of(args[++i]);
+            else files.add(Path.of(args[i]));
+        }
+        if (files.isEmpty()) {
+            System.err.println("Usage: LogAnalyzer [--trace trace.json] node_<id>.log...");
+            return;
+        }
+
+        try (TraceWriter trace = tracePath == null ? null : new TraceWriter(Files.newBufferedWriter(tracePath))) {
+            LogAnalyzer analyzer = new LogAnalyzer(System.out, trace);
+            analyzer.analyze(files);
+            analyzer.printReport();
+            if (tracePath != null) System.out.println("Trace written to " + tracePath);
+        } catch (IOException e) {
+            System.err.println("Log analysis failed: " + e.getMessage());
+        }
+    }
+
+    /** Merges the given files session by session and by (logical clock, node id) within a session, feeding every entry to the checks. */
+    public void analyze(List<Path> files) throws IOException {
+        List<Lifetime> lifetimes = new ArrayList<>();
+        for (int i = 0; i < files.size(); i++) lifetimes.addAll(Lifetime.scan(files.get(i), i));
+        lifetimes.sort(Comparator.comparingLong((Lifetime l) -> l.startMs).thenComparingInt(l -> l.fileIndex));
+
+        int from = 0;
+        while (from < lifetimes.size()) {
+            int to = from + 1;
+            long sessionEndMs = lifetimes.get(from).endMs;
+            while (to < lifetimes.size() && lifetimes.get(to).startMs <= sessionEndMs)
+                sessionEndMs = Math.max(sessionEndMs, lifetimes.get(to++).endMs);
+            holder = -1; // every process of the previous session has ended
+            merge(lifetimes.subList(from, to));
+            from = to;
+        }
+    }
+
+    private void merge(List<Lifetime> session) throws IOException {
+        PriorityQueue<LogCursor> merge = new PriorityQueue<>();
+        try {
+            for (Lifetime lifetime : session) {
+                LogCursor cursor = new LogCursor(lifetime);
+                if (cursor.advance()) merge.add(cursor);
+                else cursor.close();
+            }
+            while (!merge.isEmpty()) {
+                LogCursor cursor = merge.poll();
+                process(cursor.current);
+                if (cursor.advance()) merge.add(cursor);
+                else cursor.close();
+            }
+        } finally {
+            for (LogCursor cursor : merge) cursor.close();
+        }
+    }
+
+    private void process(LogEntry entry) throws IOException {
+        totalLines++;
+        NodeStats node = nodes.computeIfAbsent(entry.nodeId, NodeStats::new);
+        String msg = entry.message;
+
+        if (msg.startsWith("REQUESTING CRITICAL SECTION")) {
+            node.pending.put(requestTimestamp(msg), new long[]{entry.wallMs, totalGrants});
+        } else if (msg.startsWith("ENTERED CRITICAL SECTION")) {
+            if (holder != -1 && holder != entry.nodeId)
+                violations.add(String.format("LC=%d: node %d entered while node %d was still inside",
+                        entry.logicalClock, entry.nodeId, holder));
+            holder = entry.nodeId;
+            node.enteredAtMs = entry.wallMs;
+            node.grants++;
+            long[] request = node.takePending(requestTimestamp(msg));
+            if (request != null) {
+                acquisitionLatency.record(entry.wallMs - request[0]);
+                queueWait.record(totalGrants - request[1]);
+                if (trace != null) trace.span(entry.nodeId, "waiting", request[0], entry.wallMs);
+            }
+            totalGrants++;
+        } else if (msg.startsWith("CS REQUEST TIMED OUT")) {
+            int t = msg.lastIndexOf("T:");
+            if (t >= 0) node.pending.remove(parseIntPrefix(msg, t + 2));
+        } else if (msg.startsWith("CS REQUEST ABANDONED")) {
+            // a rejoining node gives up its requests, including one it may have held the CS for when it was killed
+            int t = msg.lastIndexOf("T:");
+            if (t >= 0) node.pending.remove(parseIntPrefix(msg, t + 2));
+            if (holder == entry.nodeId) holder = -1;
+            node.enteredAtMs = -1;
+        } else if (msg.startsWith("LEFT CRITICAL SECTION")) {
+            if (holder == entry.nodeId) holder = -1;
+            if (node.enteredAtMs >= 0) {
+                holdTime.record(entry.wallMs - node.enteredAtMs);
+                if (trace != null) trace.span(entry.nodeId, "critical section", node.enteredAtMs, entry.wallMs);
+                node.enteredAtMs = -1;
+            }
+        } else if (msg.contains("-> Sending REQUEST")) {
+            node.requestsSent++;
+        } else if (msg.startsWith("Received REQUEST")) {
+            node.requestsReceived++;
+        } else if (msg.startsWith("Received REPLY")) {
+            node.repliesReceived++;
+        } else if (msg.startsWith("Received RELEASE")) {
+            node.releasesReceived++;
+        } else if (msg.startsWith("Node created")) {
+            // a restarted node cannot still be inside the critical section
+            if (holder == entry.nodeId) holder = -1;
+            node.pending.clear();
+            node.enteredAtMs = -1;
+        }
+    }
+
+    /** Extracts the request timestamp from "... (My Timestamp: N)", or -1 for logs written before it was included. */
+    private static int requestTimestamp(String msg) {
+        int i = msg.indexOf("My Timestamp: ");
+        return i < 0 ? -1 : parseIntPrefix(msg, i + 14);
+    }
+
+    private static int parseIntPrefix(String s, int from) {
+        int end = from;
+        while (end < s.length() && Character.isDigit(s.charAt(end))) end++;
+        return end == from ? -1 : Integer.parseInt(s, from, end, 10);
+    }
+
+    public void printReport() {
+        out.println("Lines analyzed: " + totalLines + " (malformed: " + malformedLines + ")");
+        out.println("Nodes: " + nodes.size() + ", CS grants: " + totalGrants);
+        out.println();
+        out.println("Mutual exclusion: " + (violations.isEmpty() ? "OK" : violations.size() + " VIOLATION(S)"));
+        for (String violation : violations) out.println("  " + violation);
+        out.println();
+        out.println("Acquisition latency (ms):   " + acquisitionLatency);
+        out.println("Queue wait (grants ahead):  " + queueWait);
+        out.println("Hold time (ms):             " + holdTime);
+        out.println();
+        out.println(String.format("%-20s %8s %10s %10s %10s %10s", "Node", "Grants", "REQ sent", "REQ recv", "REPLY recv", "REL recv"));
+        for (NodeStats n : nodes.values())
+            out.println(String.format("%-20d %8d %10d %10d %10d %10d",
+                    n.nodeId, n.grants, n.requestsSent, n.requestsReceived, n.repliesReceived, n.releasesReceived));
+    }
+
+    private static final class NodeStats {
+        final long nodeId;
+        /** Outstanding own requests by timestamp: {requested wall ms, grants before the request}. A node may have several when it pipelines. */
+        final TreeMap<Integer, long[]> pending = new TreeMap<>();
+        long enteredAtMs = -1;
+        long grants;
+        long requestsSent;
+        long requestsReceived;
+        long repliesReceived;
+        long releasesReceived;
+
+        NodeStats(long nodeId) { this.nodeId = nodeId; }
+
+        /** Removes the request granted now; untagged entries fall back to the oldest outstanding request. */
+        long[] takePending(int timestamp) {
+            long[] request = pending.remove(timestamp);
+            if (request == null && timestamp < 0 && !pending.isEmpty()) request = pending.pollFirstEntry().getValue();
+            return request;
+        }
+    }
+
+    /** One parsed line of the form {@code [HH:mm:ss.SSS][LC=n][Node id] message}. */
+    static final class LogEntry {
+        final long wallMs;
+        final int logicalClock;
+        final long nodeId;
+        final String message;
+
+        LogEntry(long wallMs, int logicalClock, long nodeId, String message) {
+            this.wallMs = wallMs;
+            this.logicalClock = logicalClock;
+            this.nodeId = nodeId;
+            this.message = message;
+        }
+
+        /** Returns the parsed entry, or null if the line does not follow the logger format. */
+        static LogEntry parse(String line) {
+            if (line.length() < 14 || line.charAt(0) != '[' || line.charAt(13) != ']') return null;
+            try {
+                long wallMs = Integer.parseInt(line, 1, 3, 10) * 3_600_000L
+                        + Integer.parseInt(line, 4, 6, 10) * 60_000L
+                        + Integer.parseInt(line, 7, 9, 10) * 1_000L
+                        + Integer.parseInt(line, 10, 13, 10);
+
+                if (!line.startsWith("[LC=", 14)) return null;
+                int lcEnd = line.indexOf(']', 18);
+                if (lcEnd < 0 || !line.startsWith("[Node ", lcEnd + 1)) return null;
+                int nodeEnd = line.indexOf(']', lcEnd + 7);
+                if (nodeEnd < 0) return null;
+
+                int logicalClock = Integer.parseInt(line, 18, lcEnd, 10);
+                long nodeId = Long.parseLong(line, lcEnd + 7, nodeEnd, 10);
+                String message = nodeEnd + 2 <= line.length() ? line.substring(nodeEnd + 2) : "";
+                return new LogEntry(wallMs, logicalClock, nodeId, message);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * One process lifetime within a log file: the byte range from a "Node created" line (or the start of the
+     * file) up to the next one, with its wall-clock span.
+     */
+    static final class Lifetime {
+        final Path file;
+        final int fileIndex;
+        final long startOffset;
+        long endOffset;
+        final long startMs;
+        long endMs;
+        final long dayOffsetMs; // midnight rollovers before the first line, and that line's predecessor's time of day
+        final long lastRawMs;
+
+        Lifetime(Path file, int fileIndex, long startOffset, long startMs, long dayOffsetMs, long lastRawMs) {
+            this.file = file;
+            this.fileIndex = fileIndex;
+            this.startOffset = startOffset;
+            this.startMs = startMs;
+            this.endMs = startMs;
+            this.dayOffsetMs = dayOffsetMs;
+            this.lastRawMs = lastRawMs;
+        }
+
+        /** Finds the lifetimes of one file in a streaming pre-pass. */
+        static List<Lifetime> scan(Path file, int fileIndex) throws IOException {
+            List<Lifetime> lifetimes = new ArrayList<>();
+            try (MappedLineReader reader = new MappedLineReader(file)) {
+                Lifetime current = null;
+                long dayOffsetMs = 0;
+                long lastRawMs = -1;
+                long lineStart = reader.offset();
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    LogEntry entry = LogEntry.parse(line);
+                    if (entry != null) {
+                        long previousRawMs = lastRawMs;
+                        long previousDayOffsetMs = dayOffsetMs;
+                        if (lastRawMs >= 0 && entry.wallMs < lastRawMs - DAY_MS / 2) dayOffsetMs += DAY_MS;
+                        lastRawMs = entry.wallMs;
+                        long wallMs = entry.wallMs + dayOffsetMs;
+                        if (current == null || entry.message.startsWith("Node created")) {
+                            if (current != null) current.endOffset = lineStart;
+                            current = new Lifetime(file, fileIndex, current == null ? 0 : lineStart, wallMs,
+                                    previousDayOffsetMs, previousRawMs);
+                            lifetimes.add(current);
+                        }
+                        current.endMs = wallMs;
+                    }
+                    lineStart = reader.offset();
+                }
+                if (current != null) current.endOffset = lineStart;
+            }
+            return lifetimes;
+        }
+    }
+
+    /** Head of one lifetime in the k-way merge; ordered by (logical clock, node id, file). */
+    private final class LogCursor implements Comparable<LogCursor>, Closeable {
+        private final MappedLineReader reader;
+        private final int fileIndex;
+        private long dayOffsetMs;
+        private long lastRawMs;
+        LogEntry current;
+
+        LogCursor(Lifetime lifetime) throws IOException {
+            this.reader = new MappedLineReader(lifetime.file, lifetime.startOffset, lifetime.endOffset);
+            this.fileIndex = lifetime.fileIndex;
+            this.dayOffsetMs = lifetime.dayOffsetMs;
+            this.lastRawMs = lifetime.lastRawMs;
+        }
+
+        boolean advance() throws IOException {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                LogEntry parsed = LogEntry.parse(line);
+                if (parsed == null) {
+                    if (!line.isEmpty()) malformedLines++;
+                    continue;
+                }
+                // the logger only writes time of day; a large backwards jump means the log crossed midnight
+                if (lastRawMs >= 0 && parsed.wallMs < lastRawMs - DAY_MS / 2) dayOffsetMs += DAY_MS;
+                lastRawMs = parsed.wallMs;
+                current = new LogEntry(parsed.wallMs + dayOffsetMs, parsed.logicalClock, parsed.nodeId, parsed.message);
+                return true;
+            }
+            current = null;
+            return false;
+        }
+
+        @Override
+        public int compareTo(LogCursor other) {
+            if (current.logicalClock != other.current.logicalClock)
+                return Integer.compare(current.logicalClock, other.current.logicalClock);
+            if (current.nodeId != other.current.nodeId)
+                return Long.compare(current.nodeId, other.current.nodeId);
+            return Integer.compare(fileIndex, other.fileIndex);
+        }
+
+        @Override
+        public void close() throws IOException { reader.close(); }
+    }
+
+    /**
+     * Reads lines through a sliding read-only mapping of at most {@link #WINDOW_SIZE} bytes,
+     * so arbitrarily large files are scanned without loading them onto the heap.
+     */
+    static final class MappedLineReader implements Closeable {
+        static final int WINDOW_SIZE = 32 * 1024 * 1024;
+
+        private final FileChannel channel;
+        private final long fileSize; // end of the range being read
+        private MappedByteBuffer window;
+        private long windowStart;
+        private byte[] lineBuffer = new byte[512];
+
+        MappedLineReader(Path file) throws IOException {
+            this(file, 0, -1);
+        }
+
+        /** Reads the byte range [from, to) of the file; a negative end means the end of the file. */
+        MappedLineReader(Path file, long from, long to) throws IOException {
+            this.channel = FileChannel.open(file, StandardOpenOption.READ);
+            this.fileSize = to < 0 ? channel.size() : Math.min(to, channel.size());
+            map(Math.min(from, fileSize));
+        }
+
+        /** Byte offset of the next line in the file. */
+        long offset() { return windowStart + window.position(); }
+
+        private void map(long position) throws IOException {
+            windowStart = position;
+            long length = Math.min(WINDOW_SIZE, fileSize - position);
+            window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+        }
+
+        /** Returns the next line without its terminator, or null at end of file. */
+        String readLine() throws IOException {
+            while (true) {
+                int start = window.position();
+                int limit = window.limit();
+                if (start == limit && windowStart + limit >= fileSize) return null;
+
+                for (int i = start; i < limit; i++) {
+                    if (window.get(i) == '\n') {
+                        window.position(i + 1);
+                        return decode(start, i);
+                    }
+                }
+                boolean lastWindow = windowStart + limit >= fileSize;
+                if (lastWindow || start == 0) { // unterminated last line, or a single line longer than the window
+                    window.position(limit);
+                    return decode(start, limit);
+                }
+                map(windowStart + start); // slide the window so the partial line is at its beginning
+            }
+        }
+
+        private String decode(int from, int to) {
+            if (to > from && window.get(to - 1) == '\r') to--;
+            int length = to - from;
+            if (lineBuffer.length < length) lineBuffer = new byte[Math.max(length, lineBuffer.length * 2)];
+            window.get(from, lineBuffer, 0, length);
+            return new String(lineBuffer, 0, length, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void close() throws IOException { channel.close(); }
+    }
+
+    /**
+     * Fixed-size histogram with power-of-two buckets split into 16 linear sub-buckets
+     * (relative error below 7%), so statistics need constant memory.
+     */
+    static final class Histogram {
+        private static final int SUB_BUCKETS = 16;
+        private final long[] counts = new long[64 * SUB_BUCKETS];
+        private long count;
+        private long sum;
+        private long min = Long.MAX_VALUE;
+        private long max = Long.MIN_VALUE;
+
+        void record(long value) {
+            if (value < 0) value = 0;
+            counts[bucketOf(value)]++;
+            count++;
+            sum += value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+
+        private static int bucketOf(long value) {
+            if (value < SUB_BUCKETS) return (int) value;
+            int exponent = 63 - Long.numberOfLeadingZeros(value); // >= 4
+            int sub = (int) (value >>> (exponent - 4)) & (SUB_BUCKETS - 1);
+            return (exponent - 3) * SUB_BUCKETS + sub;
+        }
+
+        private static long lowerBound(int bucket) {
+            if (bucket < SUB_BUCKETS) return bucket;
+            int exponent = bucket / SUB_BUCKETS + 3;
+            int sub = bucket % SUB_BUCKETS;
+            return (long) (SUB_BUCKETS + sub) << (exponent - 4);
+        }
+
+        long percentile(double p) {
+            long rank = (long) Math.ceil(p / 100.0 * count);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank && counts[i] > 0) return Math.min(Math.max(lowerBound(i), min), max);
+            }
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            if (count == 0) return "n=0";
+            return String.format("n=%d min=%d mean=%.1f p50=%d p95=%d p99=%d max=%d",
+                    count, min, (double) sum / count, percentile(50), percentile(95), percentile(99), max);
+        }
+    }
+
+    /** Streams spans in the Chrome trace event format, readable by chrome://tracing and Perfetto. */
+    static final class TraceWriter implements Closeable {
+        private final Writer writer;
+        private final Set<Long> namedThreads = new HashSet<>();
+        private boolean first = true;
+
+        TraceWriter(BufferedWriter writer) throws IOException {
+            this.writer = writer;
+            writer.write("{\"traceEvents\":[\n");
+        }
+
+        void span(long nodeId, String name, long startMs, long endMs) throws IOException {
+            if (namedThreads.add(nodeId))
+                event(String.format("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":%d,\"args\":{\"name\":\"Node %d\"}}",
+                        nodeId, nodeId));
+            event(String.format("{\"name\":\"%s\",\"ph\":\"X\",\"pid\":1,\"tid\":%d,\"ts\":%d,\"dur\":%d}",
+                    name, nodeId, startMs * 1000, Math.max(0, endMs - startMs) * 1000));
+        }
+
+        private void event(String json) throws IOException {
+            if (!first) writer.write(",\n");
+            writer.write(json);
+            first = false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.write("\n]}\n");
+            writer.close();
+        }
+    }
+}
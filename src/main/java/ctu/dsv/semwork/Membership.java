@@ -0,0 +1,114 @@
+package ctu.dsv.semwork;
+
+import java.util.Arrays;
+
+/**
+ * Dense slot numbering of the known peers, so per-peer protocol state can be kept in primitive bitsets.
+ * Every add or remove publishes a new immutable {@link View} with the next epoch; readers use the current
+ * view without locking or allocating. The slot of a removed peer is handed out again to a later peer,
+ * so callers must clear state they keep for a slot when {@link #add} returns it.
+ */
+class Membership {
+
+    private volatile View view = View.EMPTY;
+
+    View current() { return view; }
+
+    /** Adds a peer and returns its slot; a peer that is already a member keeps its slot. */
+    synchronized int add(long peerId) {
+        View current = view;
+        int slot = current.slotOf(peerId);
+        if (slot >= 0) return slot;
+
+        slot = current.firstFreeSlot();
+        long[] owners = Arrays.copyOf(current.owners, Math.max(current.owners.length, slot + 1));
+        long[] active = Arrays.copyOf(current.active, Math.max(current.active.length, (slot >> 6) + 1));
+        owners[slot] = peerId;
+        active[slot >> 6] |= 1L << slot;
+        view = new View(current.epoch + 1, owners, active);
+        return slot;
+    }
+
+    /** Removes a peer and returns the slot it occupied, or -1 if it was not a member. */
+    synchronized int remove(long peerId) {
+        View current = view;
+        int slot = current.slotOf(peerId);
+        if (slot < 0) return -1;
+
+        long[] active = current.active.clone();
+        active[slot >> 6] &= ~(1L << slot);
+        view = new View(current.epoch + 1, current.owners, active);
+        return slot;
+    }
+
+    synchronized void clear() {
+        view = new View(view.epoch + 1, new long[0], new long[0]);
+    }
+
+    /** Immutable membership for one epoch: occupied slots as a bitset plus a peer id to slot hash index. */
+    static final class View {
+        static final View EMPTY = new View(0, new long[0], new long[0]);
+
+        final long epoch;
+        final int size;
+        private final long[] owners; // peer id per slot, meaningful only where the active bit is set
+        private final long[] active;
+        private final long[] tableIds; // open addressing, linear probing
+        private final int[] tableSlots; // slot + 1, 0 marks an empty cell
+        private final int mask;
+
+        private View(long epoch, long[] owners, long[] active) {
+            this.epoch = epoch;
+            this.owners = owners;
+            this.active = active;
+            int count = 0;
+            for (long word : active) count += Long.bitCount(word);
+            this.size = count;
+
+            int capacity = Integer.highestOneBit(Math.max(4, count * 2) - 1) << 1;
+            this.tableIds = new long[capacity];
+            this.tableSlots = new int[capacity];
+            this.mask = capacity - 1;
+            for (int slot = 0; slot < owners.length; slot++) {
+                if (!isActive(slot)) continue;
+                int i = hash(owners[slot]) & mask;
+                while (tableSlots[i] != 0) i = (i + 1) & mask;
+                tableIds[i] = owners[slot];
+                tableSlots[i] = slot + 1;
+            }
+        }
+
+        /** Returns the slot of a member, or -1 if the peer is not a member in this epoch. */
+        int slotOf(long peerId) {
+            for (int i = hash(peerId) & mask; ; i = (i + 1) & mask) {
+                int slot = tableSlots[i];
+                if (slot == 0) return -1;
+                if (tableIds[i] == peerId) return slot - 1;
+            }
+        }
+
+        boolean isActive(int slot) {
+            int word = slot >> 6;
+            return word < active.length && (active[word] & (1L << slot)) != 0;
+        }
+
+        /** True if every member's bit is set in the given bitset, one word per 64 slots. */
+        boolean coveredBy(long[] bits) {
+            for (int i = 0; i < active.length; i++) {
+                long set = i < bits.length ? bits[i] : 0;
+                if ((active[i] & ~set) != 0) return false;
+            }
+            return true;
+        }
+
+        private int firstFreeSlot() {
+            for (int i = 0; i < active.length; i++)
+                if (active[i] != -1L) return (i << 6) + Long.numberOfTrailingZeros(~active[i]);
+            return active.length << 6;
+        }
+
+        private static int hash(long peerId) {
+            return (int) ((peerId * 0x9E3779B97F4A7C15L) >>> 32);
+        }
+    }
+}
@@ -19,13 +19,30 @@ public interface Node extends Remote {
     int getLogicalClock() throws RemoteException;
 
     /**
-     * Allows a new node to join the network and synchronizes shared variables and request queue.
+     * Allows a new node to join the network. The joining node then pulls the shared state
+     * with {@link #openStateTransfer(long)} and {@link #fetchStateChunk(long, int)}.
      * @param joiningNodeId The ID of the node that is joining.
      * @param joiningNodeRef The reference to the joining node's remote object.
      * @return A map of all known nodes including this node and their references.
      */
     Map<Long, Node> join(long joiningNodeId, Node joiningNodeRef) throws RemoteException;
 
+    /**
+     * Takes a snapshot of the shared variable and this node's own pending requests for a joining or reviving node.
+     * Requests of other peers are not included; each peer forwards its own when it learns about the new node.
+     * The snapshot is fetched afterwards in chunks with {@link #fetchStateChunk(long, int)}.
+     * @param requesterId The ID of the node that will fetch the snapshot.
+     * @return The ID of the opened state transfer.
+     */
+    long openStateTransfer(long requesterId) throws RemoteException;
+
+    /**
+     * Returns one chunk of an open state transfer; fetching the last chunk closes the transfer.
+     * @param transferId The ID returned by {@link #openStateTransfer(long)}.
+     * @param chunkIndex The zero-based index of the chunk.
+     */
+    StateChunk fetchStateChunk(long transferId, int chunkIndex) throws RemoteException;
+
     /**
      * Adds a known node to this node's topology.
      * @param nodeId The ID of the node to add.
@@ -45,9 +62,22 @@ public interface Node extends Remote {
     /** Returns a list of IDs for all currently known nodes. */
     List<Long> getKnownNodes() throws RemoteException;
 
-    /** Requests entry into the critical section (Lamport mutual exclusion). */
+    /**
+     * Requests entry into the critical section (Lamport mutual exclusion).
+     * May be called again while this node holds the CS; the new request is queued and replied to
+     * in the background and is granted as soon as the current hold is released.
+     * @throws RequestAbandonedException if this node rejoined the network while the request was waiting.
+     */
     void enterCS() throws RemoteException;
 
+    /**
+     * Requests entry into the critical section, withdrawing the request if it is not granted in time.
+     * @param timeoutMs The maximum time to wait for entry in milliseconds.
+     * @return true if the critical section was entered, false if the request timed out and was cancelled.
+     * @throws RequestAbandonedException if this node rejoined the network while the request was waiting.
+     */
+    boolean tryEnterCS(long timeoutMs) throws RemoteException;
+
     /**
      * Handles a request from another node to enter the critical section.
      * @param requestingNodeId The ID of the node requesting access.
@@ -58,16 +88,26 @@ public interface Node extends Remote {
     /**
      * Handles a reply from another node granting permission to enter the critical section.
      * @param replyingNodeId The ID of the node sending the reply.
+     * @param requestTimestamp The timestamp of the request being answered.
      * @param timestamp The logical clock timestamp of the reply.
      */
-    void replyCS(long replyingNodeId, int timestamp) throws RemoteException;
+    void replyCS(long replyingNodeId, int requestTimestamp, int timestamp) throws RemoteException;
 
     /**
      * Handles notification from another node that it has released the critical section.
      * @param releasingNodeId The ID of the node releasing the critical section.
+     * @param requestTimestamp The timestamp of the request whose grant is released.
      * @param timestamp The logical clock timestamp of the release.
      */
-    void releaseCS(long releasingNodeId, int timestamp) throws RemoteException;
+    void releaseCS(long releasingNodeId, int requestTimestamp, int timestamp) throws RemoteException;
+
+    /**
+     * Handles notification from another node that it has withdrawn a pending request without entering.
+     * @param cancellingNodeId The ID of the node withdrawing its request.
+     * @param requestTimestamp The timestamp of the withdrawn request.
+     * @param timestamp The logical clock timestamp of the cancellation.
+     */
+    void cancelCS(long cancellingNodeId, int requestTimestamp, int timestamp) throws RemoteException;
 
     /** Leaves the critical section after execution is finished. */
     void leaveCS() throws RemoteException;
@@ -110,6 +150,22 @@ public interface Node extends Remote {
     /** Returns a string representation of the current request queue. */
     String getQueueStatus() throws RemoteException;
 
+    /**
+     * Handles a Chandy-Lamport snapshot marker. The first marker of a snapshot records the local state
+     * and forwards markers to all known nodes; each marker closes the channel from its sender.
+     * @param snapshotId The ID of the snapshot.
+     * @param initiatorId The ID of the node collecting the local snapshots.
+     * @param senderId The ID of the node that sent this marker.
+     */
+    void snapshotMarker(long snapshotId, long initiatorId, long senderId) throws RemoteException;
+
+    /**
+     * Delivers a finished local snapshot to the snapshot's initiator.
+     * @param snapshotId The ID of the snapshot.
+     * @param state The recorded state of the reporting node and its incoming channels.
+     */
+    void reportSnapshot(long snapshotId, LocalSnapshot state) throws RemoteException;
+
     /** Detects dead/unresponsive nodes in the network and handles their removal. */
     void detectDeadNodes() throws RemoteException;
 
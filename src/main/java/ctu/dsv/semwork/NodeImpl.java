@@ -1,5 +1,8 @@
 package ctu.dsv.semwork;
 
+import ctu.dsv.semwork.EventBus.EventType;
+import ctu.dsv.semwork.FaultInjector.MessageType;
+
 import java.io.FileWriter;
 import java.io.IOException;
 import java.rmi.RemoteException;
@@ -8,36 +11,56 @@ import java.rmi.registry.Registry;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class NodeImpl extends UnicastRemoteObject implements Node {
     private final long nodeId;
     private final Map<Long, Node> knownNodes;
-    private final Set<Long> repliesReceivedForMyRequest = new HashSet<>();
+    private final Membership membership = new Membership(); // slot index of every known node, updated together with knownNodes under this
+    private final List<OwnRequest> myRequests = new ArrayList<>(); // own outstanding requests, oldest first (guarded by this)
     private final PriorityQueue<Request> requestQueue;
     private final Logger logger;
     private final FileWriter logWriter;
+    private final FaultInjector faultInjector = new FaultInjector();
+    private final EventBus events;
+    private final Map<Long, StateTransfer> stateTransfers = new ConcurrentHashMap<>();
+    private final AtomicLong nextTransferId = new AtomicLong();
+    private final ReentrantReadWriteLock snapshotLock = new ReentrantReadWriteLock(); // read: protocol event, write: state recording
+    private final Map<Long, SnapshotRecorder> snapshotRecorders = new ConcurrentHashMap<>();
+    private final Map<Long, GlobalSnapshot.Collector> snapshotCollectors = new ConcurrentHashMap<>();
 
     private int logicalClock;
     private int sharedVariable;
-    private int messageDelayMs;
+    private int sharedVariableTimestamp; // Lamport timestamp and writer of the applied value, so stale UPDATEs are ignored (guarded by this)
+    private long sharedVariableWriter;
     private boolean inCriticalSection;
-    private boolean wantCS = false;
+    private Request heldRequest; // the request whose grant this node holds while in the CS (guarded by this)
+    private volatile int maxQueueDepth = 0; // 0 = admission control disabled
+    private List<QueueChange> transferJournal; // peer queue changes seen while a state transfer is running (guarded by requestQueue)
 
     public NodeImpl(long nodeId) throws RemoteException {
+        this(nodeId, true);
+    }
+
+    /** With logToFile false the node logs to the console only and leaves its log file untouched (AppCDS training run). */
+    public NodeImpl(long nodeId, boolean logToFile) throws RemoteException {
         super();
         this.nodeId = nodeId;
         this.logicalClock = 0;
         this.knownNodes = new ConcurrentHashMap<>();
         this.sharedVariable = 0;
         this.inCriticalSection = false;
-        this.messageDelayMs = 0;
         this.requestQueue = new PriorityQueue<>();
+        this.events = new EventBus(nodeId);
 
         FileWriter writer = null;
-        try {
-            writer = new FileWriter("node_" + nodeId + ".log", true);
-        } catch (IOException e) {
-            System.err.println("Failed to create log file: " + e.getMessage());
+        if (logToFile) {
+            try {
+                writer = new FileWriter("node_" + nodeId + ".log", true);
+            } catch (IOException e) {
+                System.err.println("Failed to create log file: " + e.getMessage());
+            }
         }
         this.logWriter = writer;
         this.logger = new Logger(nodeId, logWriter);
@@ -81,11 +104,6 @@ public class NodeImpl extends UnicastRemoteObject implements Node {
 
         this.addNode(joiningNodeId, joiningNodeRef);
 
-        try {
-            joiningNodeRef.updateSharedVariable(sharedVariable, logicalClock, nodeId);
-        } catch (RemoteException e) {
-            logger.logError("Error syncing var to new node: " + e.getMessage(), logicalClock);
-        }
         for (Map.Entry<Long, Node> entry : currentTopology.entrySet()) {
             if (entry.getKey() != nodeId && entry.getKey() != joiningNodeId) {
                 try {
@@ -99,45 +117,178 @@ public class NodeImpl extends UnicastRemoteObject implements Node {
     }
 
     public void joinNetwork(String ip, int port) throws RemoteException {
-        inCriticalSection = false;
-        wantCS = false;
-        repliesReceivedForMyRequest.clear();
+        List<Request> abandoned = abandonOwnRequests();
+        synchronized (this) {
+            sharedVariableTimestamp = 0;
+            sharedVariableWriter = 0;
+        }
         try {
             Registry registry = LocateRegistry.getRegistry(ip, port);
             Node networkNode = (Node) registry.lookup(String.valueOf(port));
 
             if (networkNode.getNodeId() == this.nodeId)
                 throw new RemoteException("Cannot join itself.");
+            beginStateTransfer();
             Map<Long, Node> networkTopology = networkNode.join(this.nodeId, this);
 
             for (Map.Entry<Long, Node> entry : networkTopology.entrySet())
                 if (entry.getKey() != this.nodeId)
                     this.addNode(entry.getKey(), entry.getValue());
 
+            syncStateFrom(networkNode);
+            for (Request request : abandoned) withdrawRequest(request, "ABANDONED");
             logger.logInfo("Successfully joined network. Known nodes: " + knownNodes.keySet(), logicalClock);
         } catch (Exception e) {
             logger.logError("Failed to join network: " + e.getMessage(), logicalClock);
+        } finally {
+            endStateTransfer();
         }
     }
 
     @Override
-    public void addNode(long otherNodeId, Node nodeRef) throws RemoteException {
-        incrementClock();
-        knownNodes.put(otherNodeId, nodeRef);
-        logger.logInfo("Added node " + otherNodeId + " (Total: " + knownNodes.size() + ")", logicalClock);
+    public long openStateTransfer(long requesterId) throws RemoteException {
+        long now = System.currentTimeMillis();
+        stateTransfers.values().removeIf(t -> t.isExpired(now));
+
+        // Only this node's own requests go into the snapshot. A peer's entry here may be stale, because its
+        // RELEASE can still be in flight to us; each peer forwards its pending requests to the joiner itself
+        // (addNode), over the same FIFO channel as the RELEASE that will follow them.
+        StateTransfer transfer;
+        synchronized (this) { // same lock order as canEnterCS: this, then requestQueue
+            List<Request> own = new ArrayList<>();
+            synchronized (requestQueue) {
+                for (Request r : requestQueue) if (r.nodeId == nodeId) own.add(r);
+            }
+            transfer = new StateTransfer(nextTransferId.incrementAndGet(), requesterId, logicalClock,
+                    sharedVariable, sharedVariableTimestamp, sharedVariableWriter, own.toArray(new Request[0]));
+        }
+        stateTransfers.put(transfer.id, transfer);
+        logger.logInfo("Opened state transfer " + transfer.id + " for node " + requesterId + " ("
+                + transfer.requestCount() + " requests, " + transfer.chunkCount() + " chunks)", logicalClock);
+        return transfer.id;
     }
 
     @Override
-    public void removeNode(long nodeId) throws RemoteException {
-        knownNodes.remove(nodeId);
-        repliesReceivedForMyRequest.remove(nodeId);
+    public StateChunk fetchStateChunk(long transferId, int chunkIndex) throws RemoteException {
+        StateTransfer transfer = stateTransfers.get(transferId);
+        if (transfer == null)
+            throw new RemoteException("Unknown or expired state transfer " + transferId);
+        StateChunk chunk = transfer.chunk(chunkIndex);
+        if (chunk.last) stateTransfers.remove(transferId);
+        return chunk;
+    }
+
+    /** Starts journaling peer queue changes, so changes made while the snapshot is in flight are not lost. */
+    private void beginStateTransfer() {
+        synchronized (requestQueue) { transferJournal = new ArrayList<>(); }
+    }
 
+    private void endStateTransfer() {
+        synchronized (requestQueue) { transferJournal = null; }
+    }
+
+    /**
+     * Pulls a snapshot from the contact node chunk by chunk, installs it and replays the journaled changes
+     * that arrived directly from peers during the transfer. Own requests are kept from the local queue.
+     * The snapshot holds only the contact's own requests; other peers' requests come from the peers themselves.
+     */
+    private void syncStateFrom(Node contact) throws RemoteException {
+        long transferId = contact.openStateTransfer(nodeId);
+        List<Request> snapshot = new ArrayList<>();
+        StateChunk chunk;
+        int index = 0;
+        do {
+            chunk = contact.fetchStateChunk(transferId, index++);
+            snapshot.addAll(chunk.requests);
+        } while (!chunk.last);
+
+        updateClock(chunk.clock);
+        synchronized (this) {
+            // the snapshot value competes with UPDATEs that arrived directly, by the same rule updateSharedVariable applies
+            if (!isStaleWrite(chunk.sharedVariableTimestamp, chunk.sharedVariableWriter)) {
+                this.sharedVariable = chunk.sharedVariable;
+                sharedVariableTimestamp = chunk.sharedVariableTimestamp;
+                sharedVariableWriter = chunk.sharedVariableWriter;
+            }
+            synchronized (requestQueue) {
+                List<Request> own = new ArrayList<>();
+                for (Request r : requestQueue) if (r.nodeId == nodeId) own.add(r);
+                requestQueue.clear();
+                for (Request r : snapshot) if (r.nodeId != nodeId) requestQueue.add(r);
+                requestQueue.addAll(own);
+                for (QueueChange change : transferJournal) change.apply(requestQueue);
+                logger.logInfo("State transfer " + transferId + " complete: " + index + " chunks, "
+                        + snapshot.size() + " requests, " + transferJournal.size() + " changes replayed. Queue: " + requestQueue, logicalClock);
+                transferJournal = null;
+            }
+            notifyAll();
+        }
+    }
+
+    /** Applies a queue change caused by a peer message, journaling it if a state transfer is running. */
+    private boolean changeQueue(QueueChange change) {
         synchronized (requestQueue) {
-            boolean removed = requestQueue.removeIf(r -> r.nodeId == nodeId);
-            if (removed)
-                logger.logInfo("Cleaned up pending request from removed node " + nodeId, logicalClock);
+            if (transferJournal != null) transferJournal.add(change);
+            return change.apply(requestQueue);
         }
+    }
+
+    @Override
+    public void addNode(long otherNodeId, Node nodeRef) throws RemoteException {
+        beginEvent();
+        try {
+            // one monitor section, so no newer message can reach the new node ahead of the older pending requests
+            synchronized (this) {
+                incrementClock();
+                knownNodes.put(otherNodeId, nodeRef);
+                int slot = membership.add(otherNodeId);
+                logger.logInfo("Added node " + otherNodeId + " (Total: " + knownNodes.size() + ", slot " + slot
+                        + ", epoch " + membership.current().epoch + ")", logicalClock);
+                events.publish(EventType.NODE_ADDED, logicalClock, otherNodeId);
+
+                Request held = heldRequest;
+                if (held != null) { // the new node must see the CS as taken; our RELEASE follows on the same channel
+                    logger.logInfo(" -> Sending held REQUEST " + held + " to new node " + otherNodeId, logicalClock);
+                    send(otherNodeId, nodeRef, MessageType.REQUEST, node -> node.requestCS(nodeId, held.timestamp));
+                }
+                for (OwnRequest own : myRequests) { // the new node must acknowledge too, or these requests could never be granted
+                    own.unacknowledge(slot); // the slot may have belonged to a removed node
+                    logger.logInfo(" -> Sending pending REQUEST " + own.request + " to new node " + otherNodeId, logicalClock);
+                    send(otherNodeId, nodeRef, MessageType.REQUEST, node -> node.requestCS(nodeId, own.request.timestamp));
+                }
+                List<Request> unanswered = new ArrayList<>();
+                synchronized (requestQueue) { // REQUESTs that arrived before we knew the sender could not be answered yet
+                    for (Request r : requestQueue) if (r.nodeId == otherNodeId) unanswered.add(r);
+                }
+                int replyTimestamp = logicalClock;
+                for (Request r : unanswered) {
+                    logger.logInfo(" -> Replying to earlier REQUEST " + r + " from new node " + otherNodeId, replyTimestamp);
+                    send(otherNodeId, nodeRef, MessageType.REPLY, node -> node.replyCS(nodeId, r.timestamp, replyTimestamp));
+                }
+            }
+        } finally {
+            endEvent();
+        }
+    }
+
+    @Override
+    public void removeNode(long nodeId) throws RemoteException {
+        synchronized (this) { // its acknowledgements stay in the bitsets but no longer count once the slot is inactive
+            knownNodes.remove(nodeId);
+            membership.remove(nodeId);
+        }
+
+        if (changeQueue(queue -> queue.removeIf(r -> r.nodeId == nodeId)))
+            logger.logInfo("Cleaned up pending request from removed node " + nodeId, logicalClock);
         logger.logInfo("Removed node " + nodeId + " from topology (Total nodes: " + knownNodes.size() + ")", logicalClock);
+        events.publish(EventType.NODE_REMOVED, logicalClock, nodeId);
+
+        for (SnapshotRecorder recorder : snapshotRecorders.values()) { // no marker will come from a removed node
+            LocalSnapshot finished = recorder.closeChannel(nodeId);
+            if (finished != null) reportLocalSnapshot(recorder, finished);
+        }
+        for (GlobalSnapshot.Collector collector : snapshotCollectors.values())
+            collector.forget(nodeId);
         synchronized (this) { notifyAll(); }
     }
 
@@ -146,7 +297,10 @@ public class NodeImpl extends UnicastRemoteObject implements Node {
         if (knownNodes.isEmpty()) return;
 
         List<Node> nodesToNotify = new ArrayList<>(knownNodes.values());
-        knownNodes.clear();
+        synchronized (this) {
+            knownNodes.clear();
+            membership.clear();
+        }
 
         for (Node node : nodesToNotify)
             try { node.removeNode(this.nodeId); } catch (RemoteException ignored) {}
@@ -160,81 +314,187 @@ public class NodeImpl extends UnicastRemoteObject implements Node {
 
     @Override
     public void enterCS() throws RemoteException {
+        acquireCS(-1);
+    }
+
+    @Override
+    public boolean tryEnterCS(long timeoutMs) throws RemoteException {
+        return acquireCS(Math.max(0, timeoutMs));
+    }
+
+    /** Runs the request phase of the algorithm; a negative timeout waits without a deadline. */
+    private boolean acquireCS(long timeoutMs) throws RemoteException {
+        checkAdmission(); // rejecting is local and cheap; do it before pinging every peer
         detectDeadNodes();
 
-        incrementClock();
-        int requestTimestamp = logicalClock;
-        wantCS = true;
-        logger.logInfo("REQUESTING CRITICAL SECTION (My Timestamp: " + requestTimestamp + ")", logicalClock);
+        Request myReq;
+        OwnRequest own;
+        int requestTimestamp;
+        beginEvent();
+        try {
+            synchronized (this) {
+                incrementClock();
+                requestTimestamp = logicalClock;
+                logger.logInfo("REQUESTING CRITICAL SECTION (My Timestamp: " + requestTimestamp + ")", logicalClock);
+
+                myReq = new Request(nodeId, requestTimestamp);
+                own = new OwnRequest(myReq);
+                myRequests.add(own); // stamped and appended under the monitor, so the list stays in timestamp order
+                synchronized (requestQueue) {
+                    requestQueue.add(myReq);
+                    logger.logInfo(" Added self to queue: " + requestQueue, logicalClock);
+                }
+                events.publish(EventType.REQUEST_ENQUEUED, logicalClock, nodeId, requestTimestamp);
 
-        Request myReq = new Request(nodeId, requestTimestamp);
-        synchronized (requestQueue) {
-            requestQueue.add(myReq);
-            logger.logInfo(" Added self to queue: " + requestQueue, logicalClock);
+                for (Map.Entry<Long, Node> entry : knownNodes.entrySet()) {
+                    logger.logInfo(" -> Sending REQUEST to node " + entry.getKey(), logicalClock);
+                    send(entry.getKey(), entry.getValue(), MessageType.REQUEST, node -> node.requestCS(nodeId, requestTimestamp));
+                }
+            }
+        } finally {
+            endEvent();
+        }
+        if (!waitForPermission(own, timeoutMs)) {
+            if (own.abandoned) // joinNetwork or revive withdraws it once the new topology is known
+                throw new RequestAbandonedException("Request " + myReq + " abandoned: node rejoined the network");
+            withdrawRequest(myReq, "TIMED OUT");
+            return false;
         }
-        repliesReceivedForMyRequest.clear();
 
-        broadcast((id, node) -> {
-            logger.logInfo(" -> Sending REQUEST to node " + id, logicalClock);
-            simulateDelay();
-            node.requestCS(nodeId, requestTimestamp);
-        });
-        waitForPermission();
+        logger.logInfo("ENTERED CRITICAL SECTION (My Timestamp: " + requestTimestamp + ")", logicalClock);
+        events.publish(EventType.CS_ENTERED, logicalClock, nodeId, requestTimestamp);
+        return true;
+    }
+
+    /** Removes a request that timed out or was abandoned from the local queue and tells all peers to drop it. */
+    private void withdrawRequest(Request request, String reason) {
+        beginEvent();
+        try {
+            synchronized (this) {
+                incrementClock();
+                int cancelTimestamp = logicalClock;
+                synchronized (requestQueue) { requestQueue.remove(request); }
+                logger.logInfo("CS REQUEST " + reason + ", cancelling " + request, cancelTimestamp);
+                events.publish(EventType.REQUEST_CANCELLED, cancelTimestamp, nodeId, request.timestamp);
+                sendToAll(MessageType.CANCEL, node -> node.cancelCS(nodeId, request.timestamp, cancelTimestamp));
+                notifyAll();
+            }
+        } finally {
+            endEvent();
+        }
+    }
 
-        logger.logInfo("ENTERED CRITICAL SECTION", logicalClock);
+    private void checkAdmission() throws AdmissionRejectedException {
+        int limit = maxQueueDepth;
+        if (limit <= 0) return;
+        int depth;
+        synchronized (requestQueue) { depth = requestQueue.size(); }
+        if (depth >= limit) {
+            logger.logInfo("CS REQUEST REJECTED: queue depth " + depth + " reached limit " + limit, logicalClock);
+            throw new AdmissionRejectedException("Admission rejected: " + depth + " requests queued (limit " + limit + ")");
+        }
     }
 
+    /** Sets the queue depth at which new requests are rejected; 0 disables admission control. */
+    public void setMaxQueueDepth(int maxQueueDepth) { this.maxQueueDepth = Math.max(0, maxQueueDepth); }
+
+    public int getMaxQueueDepth() { return maxQueueDepth; }
+
     @Override
     public void requestCS(long requestingNodeId, int timestamp) throws RemoteException {
-        updateClock(timestamp);
+        beginReceive(MessageType.REQUEST, requestingNodeId, timestamp);
+        try {
+            updateClock(timestamp);
 
-        logger.logInfo("Received REQUEST from " + requestingNodeId + " (ts=" + timestamp + ")", logicalClock);
+            logger.logInfo("Received REQUEST from " + requestingNodeId + " (ts=" + timestamp + ")", logicalClock);
 
-        Request incoming = new Request(requestingNodeId, timestamp);
-        synchronized (requestQueue) { requestQueue.add(incoming); }
+            Request incoming = new Request(requestingNodeId, timestamp);
+            changeQueue(queue -> !queue.contains(incoming) && queue.add(incoming));
+            events.publish(EventType.REQUEST_ENQUEUED, logicalClock, requestingNodeId, timestamp);
 
-        Node requester = knownNodes.get(requestingNodeId);
-        if (requester != null) {
-            try { requester.replyCS(nodeId, logicalClock); }
-            catch (RemoteException e) { logger.logError("  Failed to reply to " + requestingNodeId, logicalClock); }
+            Node requester = knownNodes.get(requestingNodeId);
+            synchronized (this) {
+                if (requester != null) {
+                    int replyTimestamp = logicalClock;
+                    send(requestingNodeId, requester, MessageType.REPLY, node -> node.replyCS(nodeId, timestamp, replyTimestamp));
+                }
+                notifyAll();
+            }
+        } finally {
+            endEvent();
         }
-        synchronized (this) { notifyAll(); }
     }
 
     @Override
-    public void replyCS(long replyingNodeId, int timestamp) throws RemoteException {
-        simulateDelay();
-        updateClock(timestamp);
+    public void replyCS(long replyingNodeId, int requestTimestamp, int timestamp) throws RemoteException {
+        beginReceive(MessageType.REPLY, replyingNodeId, timestamp);
+        try {
+            updateClock(timestamp);
 
-        repliesReceivedForMyRequest.add(replyingNodeId);
-        logger.logInfo("Received REPLY from " + replyingNodeId + " (ts=" + timestamp + ")", logicalClock);
-        synchronized (this) { notifyAll(); }
+            // the acknowledgement itself was recorded by beginReceive: a REPLY is always timestamped later than its request
+            logger.logInfo("Received REPLY from " + replyingNodeId + " for request ts=" + requestTimestamp + " (ts=" + timestamp + ")", logicalClock);
+            events.publish(EventType.REPLY_RECEIVED, logicalClock, replyingNodeId, requestTimestamp);
+        } finally {
+            endEvent();
+        }
     }
 
     @Override
-    public void releaseCS(long releasingNodeId, int timestamp) throws RemoteException {
-        simulateDelay();
-        updateClock(timestamp);
+    public void releaseCS(long releasingNodeId, int requestTimestamp, int timestamp) throws RemoteException {
+        beginReceive(MessageType.RELEASE, releasingNodeId, timestamp);
+        try {
+            updateClock(timestamp);
+
+            logger.logInfo("Received RELEASE from " + releasingNodeId + " for request ts=" + requestTimestamp + " (ts=" + timestamp + ")", logicalClock);
+            Request released = new Request(releasingNodeId, requestTimestamp);
+            changeQueue(queue -> queue.remove(released));
+            events.publish(EventType.RELEASE_RECEIVED, logicalClock, releasingNodeId, requestTimestamp);
+            synchronized (this) { notifyAll(); }
+        } finally {
+            endEvent();
+        }
+    }
 
-        logger.logInfo("Received RELEASE from " + releasingNodeId + " (ts=" + timestamp + ")", logicalClock);
-        synchronized (requestQueue) { requestQueue.removeIf(r -> r.nodeId == releasingNodeId); }
-        synchronized (this) { notifyAll(); }
+    @Override
+    public void cancelCS(long cancellingNodeId, int requestTimestamp, int timestamp) throws RemoteException {
+        beginReceive(MessageType.CANCEL, cancellingNodeId, timestamp);
+        try {
+            updateClock(timestamp);
+
+            logger.logInfo("Received CANCEL from " + cancellingNodeId + " for request ts=" + requestTimestamp + " (ts=" + timestamp + ")", logicalClock);
+            Request cancelled = new Request(cancellingNodeId, requestTimestamp);
+            changeQueue(queue -> queue.remove(cancelled));
+            events.publish(EventType.REQUEST_CANCELLED, logicalClock, cancellingNodeId, requestTimestamp);
+            synchronized (this) { notifyAll(); }
+        } finally {
+            endEvent();
+        }
     }
 
     @Override
     public void leaveCS() throws RemoteException {
-        if (!inCriticalSection) {
-            logger.logError("ERROR: Attempted to leave CS but was not in it.", logicalClock);
-            return;
+        beginEvent();
+        try {
+            synchronized (this) {
+                if (!inCriticalSection) {
+                    logger.logError("ERROR: Attempted to leave CS but was not in it.", logicalClock);
+                    return;
+                }
+                Request released = heldRequest;
+                inCriticalSection = false;
+                heldRequest = null;
+                incrementClock();
+                int releaseTimestamp = logicalClock;
+                logger.logInfo("LEFT CRITICAL SECTION", releaseTimestamp); // logged before the RELEASE so merged traces stay causal
+                events.publish(EventType.CS_LEFT, releaseTimestamp, nodeId, released.timestamp);
+
+                synchronized (requestQueue) { requestQueue.remove(released); }
+                sendToAll(MessageType.RELEASE, node -> node.releaseCS(nodeId, released.timestamp, releaseTimestamp));
+                notifyAll(); // a pipelined request of this node may now be at the queue head
+            }
+        } finally {
+            endEvent();
         }
-        inCriticalSection = false;
-        wantCS = false;
-        incrementClock();
-
-        synchronized (requestQueue) { requestQueue.removeIf(r -> r.nodeId == nodeId); }
-        broadcast((id, node) -> node.releaseCS(nodeId, logicalClock));
-        repliesReceivedForMyRequest.clear();
-        logger.logInfo("LEFT CRITICAL SECTION", logicalClock);
     }
 
     @Override
@@ -243,28 +503,64 @@ public class NodeImpl extends UnicastRemoteObject implements Node {
     }
 
     @Override
-    public synchronized void setSharedVariable(int value) throws RemoteException {
-        if (!inCriticalSection)
-            throw new RemoteException("Illegal Access: Must be in Critical Section to write variable!");
-
-        incrementClock();
-        this.sharedVariable = value;
-        logger.logInfo("Wrote shared variable: " + value, logicalClock);
-        broadcast((id, node) -> node.updateSharedVariable(value, logicalClock, nodeId));
+    public void setSharedVariable(int value) throws RemoteException {
+        beginEvent(); // taken before the monitor, like every protocol event, to keep the lock order of snapshots
+        try {
+            synchronized (this) {
+                if (!inCriticalSection)
+                    throw new RemoteException("Illegal Access: Must be in Critical Section to write variable!");
+
+                incrementClock();
+                this.sharedVariable = value;
+                int updateTimestamp = logicalClock;
+                sharedVariableTimestamp = updateTimestamp;
+                sharedVariableWriter = nodeId;
+                logger.logInfo("Wrote shared variable: " + value, updateTimestamp);
+                events.publishValue(EventType.VARIABLE_UPDATED, updateTimestamp, nodeId, value);
+                sendToAll(MessageType.UPDATE, node -> node.updateSharedVariable(value, updateTimestamp, nodeId));
+            }
+        } finally {
+            endEvent();
+        }
     }
 
     @Override
-    public synchronized void updateSharedVariable(int value, int timestamp, long sourceNodeId) throws RemoteException {
-        updateClock(timestamp);
-        this.sharedVariable = value;
-        logger.logInfo("Updated Shared Variable in Node " + sourceNodeId + " to " + value, logicalClock);
+    public void updateSharedVariable(int value, int timestamp, long sourceNodeId) throws RemoteException {
+        beginReceive(MessageType.UPDATE, sourceNodeId, timestamp);
+        try {
+            synchronized (this) {
+                updateClock(timestamp);
+                // UPDATEs from different writers travel on different channels; a write that causally
+                // precedes the applied one has a smaller timestamp and must not overwrite it
+                if (isStaleWrite(timestamp, sourceNodeId)) {
+                    logger.logInfo("Ignored stale shared variable update from " + sourceNodeId + " (ts=" + timestamp + ")", logicalClock);
+                    return;
+                }
+                this.sharedVariable = value;
+                sharedVariableTimestamp = timestamp;
+                sharedVariableWriter = sourceNodeId;
+                logger.logInfo("Updated Shared Variable in Node " + sourceNodeId + " to " + value, logicalClock);
+                events.publishValue(EventType.VARIABLE_UPDATED, logicalClock, sourceNodeId, value);
+            }
+        } finally {
+            endEvent();
+        }
+    }
+
+    /** True if a write with this (timestamp, writer) is ordered before the value already applied. */
+    private synchronized boolean isStaleWrite(int timestamp, long writer) {
+        return timestamp < sharedVariableTimestamp || (timestamp == sharedVariableTimestamp && writer < sharedVariableWriter);
     }
 
     @Override
-    public void setMessageDelayMs(int delayMs) throws RemoteException { this.messageDelayMs = delayMs; }
+    public void setMessageDelayMs(int delayMs) throws RemoteException { faultInjector.setDefaultProfile(FaultInjector.Profile.fixed(delayMs)); }
 
     @Override
-    public int getMessageDelayMs() throws RemoteException { return messageDelayMs; }
+    public int getMessageDelayMs() throws RemoteException { return faultInjector.getDefaultProfile().baseMs; }
+
+    public FaultInjector getFaultInjector() { return faultInjector; }
+
+    public EventBus getEventBus() { return events; }
 
     @Override
     public void kill() throws RemoteException {
@@ -282,20 +578,37 @@ public class NodeImpl extends UnicastRemoteObject implements Node {
         try {
             UnicastRemoteObject.exportObject(this, 0);
             List<Node> potentialNeighbors = new ArrayList<>(knownNodes.values());
-            this.knownNodes.clear();
+            List<Request> abandoned = abandonOwnRequests(); // peers that declared us dead have discarded these requests
+            synchronized (this) {
+                knownNodes.clear();
+                membership.clear();
+            }
+            beginStateTransfer();
 
             for (Node neighbor : potentialNeighbors) {
+                Map<Long, Node> freshTopology;
                 try {
-                    Map<Long, Node> freshTopology = neighbor.join(this.nodeId, this);
-                    this.knownNodes.putAll(freshTopology);
-                    this.knownNodes.remove(this.nodeId);
-                    logger.logInfo("Node REVIVED and rejoined network", logicalClock);
-                    return;
-                } catch (RemoteException ignored) {}
+                    freshTopology = neighbor.join(this.nodeId, this);
+                } catch (RemoteException e) { continue; }
+
+                // through addNode like joinNetwork: a reused slot starts unacknowledged and queued requests get their REPLY
+                for (Map.Entry<Long, Node> entry : freshTopology.entrySet())
+                    if (entry.getKey() != this.nodeId)
+                        this.addNode(entry.getKey(), entry.getValue());
+                try {
+                    syncStateFrom(neighbor);
+                } catch (RemoteException e) {
+                    logger.logError("Revive: state transfer failed: " + e.getMessage(), logicalClock);
+                }
+                for (Request request : abandoned) withdrawRequest(request, "ABANDONED");
+                logger.logInfo("Node REVIVED and rejoined network", logicalClock);
+                return;
             }
             logger.logError("Revive: re-exported but no neighbors reachable", logicalClock);
         } catch (Exception e) {
             logger.logError("Failed to revive: " + e.getMessage(), logicalClock);
+        } finally {
+            endStateTransfer();
         }
     }
 
@@ -305,6 +618,125 @@ public class NodeImpl extends UnicastRemoteObject implements Node {
     @Override
     public String getQueueStatus() throws RemoteException { synchronized (requestQueue) { return requestQueue.toString(); } }
 
+    /**
+     * Starts a Chandy-Lamport snapshot with this node as initiator and waits for all local snapshots.
+     * The protocol keeps running; each node only blocks new protocol events while it copies its own state.
+     * @param timeoutMs How long to wait for reports; missing nodes are listed in the result.
+     */
+    public GlobalSnapshot takeSnapshot(long timeoutMs) {
+        long snapshotId = ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE;
+        List<Long> expected = new ArrayList<>(knownNodes.keySet());
+        expected.add(nodeId);
+        GlobalSnapshot.Collector collector = new GlobalSnapshot.Collector(snapshotId, expected);
+        snapshotCollectors.put(snapshotId, collector);
+        logger.logInfo("Starting snapshot " + snapshotId + " over " + expected.size() + " nodes", logicalClock);
+
+        try {
+            SnapshotRecorder recorder = startRecording(snapshotId, nodeId);
+            LocalSnapshot finished = recorder.finishIfComplete(); // a lone node has no incoming channels
+            if (finished != null) reportLocalSnapshot(recorder, finished);
+
+            collector.done.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            logger.logError("Snapshot " + snapshotId + " timed out after " + timeoutMs + "ms", logicalClock);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ignored) {
+        } finally {
+            snapshotCollectors.remove(snapshotId);
+        }
+        GlobalSnapshot snapshot = collector.assemble(nodeId);
+        logger.logInfo("Snapshot " + snapshotId + " assembled: " + snapshot.nodes.size() + " nodes, "
+                + snapshot.inFlightMessages + " in-flight messages, findings: " + snapshot.findings, logicalClock);
+        return snapshot;
+    }
+
+    @Override
+    public void snapshotMarker(long snapshotId, long initiatorId, long senderId) throws RemoteException {
+        SnapshotRecorder recorder = snapshotRecorders.get(snapshotId);
+        if (recorder == null) recorder = startRecording(snapshotId, initiatorId);
+        LocalSnapshot finished = recorder.closeChannel(senderId);
+        if (finished != null) reportLocalSnapshot(recorder, finished);
+    }
+
+    @Override
+    public void reportSnapshot(long snapshotId, LocalSnapshot state) throws RemoteException {
+        GlobalSnapshot.Collector collector = snapshotCollectors.get(snapshotId);
+        if (collector == null) {
+            logger.logInfo("Ignoring late report of node " + state.nodeId + " for snapshot " + snapshotId, logicalClock);
+            return;
+        }
+        collector.report(state);
+    }
+
+    /**
+     * Records local state for a snapshot and sends a marker on every outgoing channel.
+     * Holding the write lock means no protocol event is half-way done, and the markers are queued
+     * on the FIFO lanes before any message sent after the recording.
+     */
+    private SnapshotRecorder startRecording(long snapshotId, long initiatorId) {
+        snapshotLock.writeLock().lock();
+        try {
+            SnapshotRecorder recorder = snapshotRecorders.get(snapshotId);
+            if (recorder != null) return recorder;
+
+            List<Long> peers = new ArrayList<>(knownNodes.keySet());
+            LocalSnapshot state;
+            synchronized (this) {
+                synchronized (requestQueue) {
+                    List<Request> queue = new ArrayList<>(requestQueue);
+                    Collections.sort(queue);
+                    state = new LocalSnapshot(nodeId, logicalClock, inCriticalSection, !myRequests.isEmpty(), sharedVariable,
+                            queue, peers, new HashMap<>());
+                }
+            }
+            recorder = new SnapshotRecorder(snapshotId, initiatorId, state, peers);
+            snapshotRecorders.put(snapshotId, recorder);
+            logger.logInfo("Recorded local state for snapshot " + snapshotId, logicalClock);
+
+            sendToAll(MessageType.MARKER, node -> node.snapshotMarker(snapshotId, initiatorId, nodeId));
+            return recorder;
+        } finally {
+            snapshotLock.writeLock().unlock();
+        }
+    }
+
+    private void reportLocalSnapshot(SnapshotRecorder recorder, LocalSnapshot state) {
+        snapshotRecorders.remove(recorder.snapshotId);
+        logger.logInfo("Local snapshot " + recorder.snapshotId + " complete (" + state.inFlightCount() + " in-flight messages)", logicalClock);
+        if (recorder.initiatorId == nodeId) {
+            GlobalSnapshot.Collector collector = snapshotCollectors.get(recorder.snapshotId);
+            if (collector != null) collector.report(state);
+            return;
+        }
+        Node initiator = knownNodes.get(recorder.initiatorId);
+        if (initiator == null) {
+            logger.logError("Snapshot initiator " + recorder.initiatorId + " is unknown, dropping local snapshot", logicalClock);
+            return;
+        }
+        // a report is not a channel message and must not be lost, so it bypasses the simulated network
+        faultInjector.deliverDirect(() -> {
+            try {
+                initiator.reportSnapshot(recorder.snapshotId, state);
+            } catch (RemoteException e) { logger.logError("Reporting snapshot " + recorder.snapshotId + " to " + recorder.initiatorId + " failed.", logicalClock); }
+        });
+    }
+
+    /** Marks the start of a local protocol event; state is only ever recorded between events. */
+    private void beginEvent() { snapshotLock.readLock().lock(); }
+
+    private void endEvent() { snapshotLock.readLock().unlock(); }
+
+    /** Starts handling a received message, recording it as channel state for snapshots still waiting for the sender's marker. */
+    private void beginReceive(MessageType type, long senderId, int timestamp) {
+        beginEvent();
+        acknowledge(senderId, timestamp);
+        if (snapshotRecorders.isEmpty()) return;
+        String message = type + " ts=" + timestamp;
+        for (SnapshotRecorder recorder : snapshotRecorders.values())
+            recorder.recordMessage(senderId, message);
+    }
+
     @Override
     public void detectDeadNodes() throws RemoteException {
         logger.logInfo("Starting failure detection scan...", logicalClock);
@@ -328,25 +760,96 @@ public class NodeImpl extends UnicastRemoteObject implements Node {
     @Override
     public void notifyNodeDead(long deadNodeId) throws RemoteException {
         logger.logInfo("Received notification: Node " + deadNodeId + " is dead.", logicalClock);
+        events.publish(EventType.NODE_DEAD, logicalClock, deadNodeId);
         removeNode(deadNodeId);
     }
 
-    private synchronized void waitForPermission() {
-        while (!canEnterCS())
-            try { wait(); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+    /**
+     * Gives up the CS and every outstanding request before this node (re)joins a network. Peers may have discarded
+     * the requests in the meantime, so neither their queue entries nor the acknowledgements collected so far can
+     * be trusted. Waiting threads give up; the caller withdraws the returned requests once it knows the new topology.
+     */
+    private synchronized List<Request> abandonOwnRequests() {
+        List<Request> abandoned = new ArrayList<>();
+        if (heldRequest != null) abandoned.add(heldRequest);
+        for (OwnRequest own : myRequests) {
+            own.abandoned = true;
+            abandoned.add(own.request);
+        }
+        myRequests.clear();
+        inCriticalSection = false;
+        heldRequest = null;
+        notifyAll();
+        return abandoned;
+    }
+
+    /**
+     * Blocks until the given request may enter the critical section, the timeout expires or the request is abandoned.
+     * On expiry the request is dropped from myRequests under the same lock, so a grant can't slip in after giving up.
+     * An interrupt ends a timed wait like expiry; the interrupt flag stays set for the caller.
+     */
+    private synchronized boolean waitForPermission(OwnRequest own, long timeoutMs) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, timeoutMs));
+        while (!canEnterCS(own)) {
+            if (own.abandoned) return false;
+            if (timeoutMs < 0) {
+                try { wait(); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+                continue;
+            }
+            long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remainingMs <= 0 || Thread.currentThread().isInterrupted()) {
+                myRequests.remove(own);
+                return false;
+            }
+            try {
+                wait(remainingMs);
+            } catch (InterruptedException e) { // re-waiting would throw at once and spin until the deadline
+                Thread.currentThread().interrupt();
+                myRequests.remove(own);
+                return false;
+            }
+        }
+        myRequests.remove(own);
+        heldRequest = own.request;
         inCriticalSection = true;
+        return true;
     }
 
-    private synchronized boolean canEnterCS() {
-        if (!wantCS) return false;
+    /**
+     * Lamport's entry condition for one of this node's outstanding requests: it heads the queue
+     * and every current member has acknowledged it. While this node holds the CS its held request
+     * stays at the head, so a pipelined request waits here until leaveCS.
+     */
+    private synchronized boolean canEnterCS(OwnRequest own) {
+        if (own.abandoned) return false;
         synchronized (requestQueue) {
-            if (requestQueue.isEmpty() || requestQueue.peek().nodeId != nodeId)
+            if (!own.request.equals(requestQueue.peek()))
                 return false;
         }
-        return repliesReceivedForMyRequest.size() == knownNodes.size();
+        return membership.current().coveredBy(own.acked);
+    }
+
+    /**
+     * Records that a peer has seen everything it sent before the given timestamp, which acknowledges each own
+     * request with an earlier timestamp (Lamport's condition: with FIFO channels no older REQUEST of that peer
+     * can still be in flight). Messages from peers that are not members are ignored; addNode re-sends pending
+     * requests to a new member, and its reply then acknowledges them.
+     */
+    private synchronized void acknowledge(long senderId, int timestamp) {
+        if (myRequests.isEmpty()) return;
+        int slot = membership.current().slotOf(senderId);
+        if (slot < 0) return;
+        boolean changed = false;
+        for (int i = 0; i < myRequests.size(); i++) {
+            OwnRequest own = myRequests.get(i);
+            if (own.request.timestamp >= timestamp) break; // later requests are not covered either
+            changed |= own.acknowledge(slot);
+        }
+        if (changed) notifyAll();
     }
 
     private void handleDeadNode(long deadId) {
+        events.publish(EventType.NODE_DEAD, logicalClock, deadId);
         try { removeNode(deadId); } catch (RemoteException ignored) {}
         broadcast((id, node) -> node.notifyNodeDead(deadId));
     }
@@ -355,22 +858,78 @@ public class NodeImpl extends UnicastRemoteObject implements Node {
 
     private synchronized void updateClock(int receivedTimestamp) { logicalClock = Math.max(logicalClock, receivedTimestamp) + 1; }
 
-    private void simulateDelay() {
-        if (messageDelayMs > 0)
-            try { Thread.sleep(messageDelayMs); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
-    }
-
     protected void broadcast(NodeOperation operation) {
         for (Map.Entry<Long, Node> entry : knownNodes.entrySet()) {
             try {
-//                simulateDelay();
                 operation.execute(entry.getKey(), entry.getValue());
             } catch (RemoteException e) { logger.logError("Broadcasting to " + entry.getKey() + " failed (might be dead).", logicalClock); }
         }
     }
 
-    public void shutdown() { logger.close(); }
+    /**
+     * Sends a protocol message to every known node through the simulated network.
+     * Timestamped messages are stamped and handed over while holding the node monitor, so each peer's lane
+     * carries them in timestamp order; acknowledge() relies on that.
+     */
+    protected void sendToAll(MessageType type, MessageOperation operation) {
+        for (Map.Entry<Long, Node> entry : knownNodes.entrySet())
+            send(entry.getKey(), entry.getValue(), type, operation);
+    }
+
+    /** Hands a protocol message to the fault injector; delivery happens asynchronously on the peer's lane. */
+    protected void send(long targetId, Node target, MessageType type, MessageOperation operation) {
+        boolean scheduled;
+        beginEvent(); // a send never straddles a snapshot recording, so markers stay FIFO-correct
+        try {
+            scheduled = faultInjector.send(targetId, type, () -> {
+                try {
+                    operation.execute(target);
+                } catch (RemoteException e) { logger.logError("Sending " + type + " to " + targetId + " failed (might be dead).", logicalClock); }
+            });
+        } finally {
+            endEvent();
+        }
+        if (!scheduled)
+            logger.logInfo("Dropped " + type + " to " + targetId + " (fault injection)", logicalClock);
+    }
+
+    /** Writes the runner's startup phase timings into this node's log. */
+    public void logStartup(String report) { logger.logInfo(report, logicalClock); }
+
+    public void shutdown() {
+        faultInjector.shutdown();
+        logger.close();
+    }
 
     @FunctionalInterface
     protected interface NodeOperation { void execute(long nodeId, Node node) throws RemoteException; }
+
+    @FunctionalInterface
+    protected interface MessageOperation { void execute(Node node) throws RemoteException; }
+
+    @FunctionalInterface
+    protected interface QueueChange { boolean apply(PriorityQueue<Request> queue); }
+
+    /** One of this node's outstanding requests with the membership slots that acknowledged it (guarded by the node). */
+    private static final class OwnRequest {
+        final Request request;
+        long[] acked = new long[1];
+        boolean abandoned; // given up by joinNetwork or revive
+
+        OwnRequest(Request request) { this.request = request; }
+
+        /** Sets the slot's bit; returns false if it was already set. */
+        boolean acknowledge(int slot) {
+            int word = slot >> 6;
+            if (word >= acked.length) acked = Arrays.copyOf(acked, word + 1);
+            long before = acked[word];
+            acked[word] = before | (1L << slot);
+            return acked[word] != before;
+        }
+
+        void unacknowledge(int slot) {
+            int word = slot >> 6;
+            if (word < acked.length) acked[word] &= ~(1L << slot);
+        }
+    }
 }
\ No newline at end of file
@@ -3,9 +3,21 @@ package ctu.dsv.semwork;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.net.InetAddress;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class NodeRunner {
+    /** With -Dsemwork.exitAfterStartup=true the node exits once ready and writes no log file; used for the AppCDS training run. */
+    private static final String EXIT_AFTER_STARTUP = "semwork.exitAfterStartup";
+
     public static void main(String[] args) {
+        StartupTimer timer = new StartupTimer();
         int rmiPort = 2010;
 
         if (args.length >= 1) {
@@ -17,43 +29,95 @@ public class NodeRunner {
             }
         }
 
+        int port = rmiPort;
         int restPort = rmiPort + 1000;
+        boolean trainingRun = Boolean.getBoolean(EXIT_AFTER_STARTUP);
+
+        // Independent subsystems start in parallel; the REST API answers 503 (except /ready) until RMI is bound
+        APIHandler apiHandler = new APIHandler(restPort);
+        CompletableFuture<Void> api = CompletableFuture.runAsync(() -> timer.time("rest-api", () -> { apiHandler.start(); return null; }));
+        CompletableFuture<Registry> registry = CompletableFuture.supplyAsync(() -> timer.time("rmi-registry", () -> createRegistry(port)));
+        CompletableFuture<NodeImpl> node = CompletableFuture
+                .supplyAsync(() -> timer.time("hostname", () -> InetAddress.getLocalHost().getHostAddress()))
+                .thenApply(hostname -> timer.time("node", () -> {
+                    long nodeId = NodeImpl.generateId(hostname, port);
+                    System.out.println("Starting Node ID: " + nodeId);
+                    return new NodeImpl(nodeId, !trainingRun); // a training run must not append to the node's real log
+                }));
+        CompletableFuture<Void> bound = node.thenAcceptBoth(registry,
+                (nodeImpl, rmiRegistry) -> timer.time("rmi-bind", () -> { rmiRegistry.rebind(String.valueOf(port), nodeImpl); return null; }));
 
+        NodeImpl nodeImpl;
         try {
-            String hostname = InetAddress.getLocalHost().getHostAddress();
-            long nodeId = NodeImpl.generateId(hostname, rmiPort);
+            CompletableFuture.allOf(api, bound).join();
+            nodeImpl = node.join();
+        } catch (CompletionException e) {
+            e.printStackTrace(); // names the failed phase, with the original exception as cause
+            apiHandler.stop();
+            System.exit(1);
+            return;
+        }
+        apiHandler.markReady(nodeImpl);
+        String report = timer.report();
+        nodeImpl.logStartup(report);
 
-            System.out.println("Starting Node ID: " + nodeId);
-            NodeImpl nodeImpl = new NodeImpl(nodeId);
+        ConsoleHandler consoleHandler = new ConsoleHandler(nodeImpl);
 
-            APIHandler apiHandler = new APIHandler(nodeImpl, restPort);
-            apiHandler.start();
+        // Shutdown Hook
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            System.out.println("\nShutting down...");
+            consoleHandler.stop();
+            apiHandler.stop();
+            nodeImpl.shutdown();
+        }));
 
-            ConsoleHandler consoleHandler = new ConsoleHandler(nodeImpl);
-            Thread consoleThread = new Thread(consoleHandler);
-            consoleThread.start();
+        System.out.println("RMI Registry: port " + rmiPort);
+        System.out.println("REST API:     port " + restPort);
 
-            // Shutdown Hook
-            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-                System.out.println("\nShutting down...");
-                consoleHandler.stop();
-                apiHandler.stop();
-                nodeImpl.shutdown();
-            }));
+        if (trainingRun) System.exit(0);
 
-            // RMI Setup
-            Registry registry;
+        Thread consoleThread = new Thread(consoleHandler);
+        consoleThread.start();
+    }
+
+    private static Registry createRegistry(int rmiPort) throws Exception {
+        try {
+            return LocateRegistry.createRegistry(rmiPort);
+        } catch (Exception e) {
+            return LocateRegistry.getRegistry(rmiPort);
+        }
+    }
+
+    /** Records when each startup phase ran, in milliseconds since JVM start. */
+    private static final class StartupTimer {
+        private final long jvmStartMs = ProcessHandle.current().info().startInstant()
+                .map(Instant::toEpochMilli).orElse(System.currentTimeMillis());
+        private final long mainStartMs = System.currentTimeMillis();
+        private final Map<String, long[]> phases = new ConcurrentHashMap<>(); // phase -> {start, end}
+
+        <T> T time(String phase, Callable<T> step) {
+            long start = System.currentTimeMillis();
             try {
-                registry = LocateRegistry.createRegistry(rmiPort);
+                return step.call();
             } catch (Exception e) {
-                registry = LocateRegistry.getRegistry(rmiPort);
+                throw new CompletionException(phase + " failed", e);
+            } finally {
+                phases.put(phase, new long[]{start - jvmStartMs, System.currentTimeMillis() - jvmStartMs});
             }
-            registry.rebind(String.valueOf(rmiPort), nodeImpl);
+        }
 
-            System.out.println("RMI Registry: port " + rmiPort);
-            System.out.println("REST API:     port " + restPort);
-        } catch (Exception e) {
-            e.printStackTrace();
+        /** e.g. "Startup: ready 412ms after JVM start (main at 95ms); hostname 95-98ms, node 98-104ms, ..." */
+        String report() {
+            List<Map.Entry<String, long[]>> ordered = new ArrayList<>(phases.entrySet());
+            ordered.sort((a, b) -> Long.compare(a.getValue()[0], b.getValue()[0]));
+            StringBuilder sb = new StringBuilder("Startup: ready ")
+                    .append(System.currentTimeMillis() - jvmStartMs).append("ms after JVM start (main at ")
+                    .append(mainStartMs - jvmStartMs).append("ms);");
+            for (Map.Entry<String, long[]> phase : ordered)
+                sb.append(' ').append(phase.getKey()).append(' ')
+                        .append(phase.getValue()[0]).append('-').append(phase.getValue()[1]).append("ms,");
+            sb.setLength(sb.length() - 1);
+            return sb.toString();
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,18 @@
+package ctu.dsv.semwork;
+
+import java.io.Serial;
+import java.rmi.RemoteException;
+
+/**
+ * Thrown when a waiting critical section request is given up because this node rejoined the network
+ * (join or revive); peers may have discarded the request in the meantime.
+ */
+public class RequestAbandonedException extends RemoteException {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    public RequestAbandonedException(String message) {
+        super(message);
+    }
+}
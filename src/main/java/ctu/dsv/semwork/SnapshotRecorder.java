@@ -0,0 +1,43 @@
+package ctu.dsv.semwork;
+
+import java.util.*;
+
+/**
+ * Chandy-Lamport bookkeeping of one node for one snapshot: the recorded local state and the
+ * messages received on each incoming channel between recording and that channel's marker.
+ */
+class SnapshotRecorder {
+    final long snapshotId;
+    final long initiatorId;
+    private final LocalSnapshot state;
+    private final Set<Long> awaitingMarker;
+    private boolean reported;
+
+    SnapshotRecorder(long snapshotId, long initiatorId, LocalSnapshot state, Collection<Long> incomingChannels) {
+        this.snapshotId = snapshotId;
+        this.initiatorId = initiatorId;
+        this.state = state;
+        this.awaitingMarker = new HashSet<>(incomingChannels);
+        for (Long peer : incomingChannels) state.channels.put(peer, new ArrayList<>());
+    }
+
+    /** Records a message received from a peer whose marker has not arrived yet. */
+    synchronized void recordMessage(long senderId, String message) {
+        if (awaitingMarker.contains(senderId)) state.channels.get(senderId).add(message);
+    }
+
+    /**
+     * Closes the channel from the given peer (its marker arrived, or it left the topology).
+     * @return the finished local snapshot the first time all channels are closed, otherwise null.
+     */
+    synchronized LocalSnapshot closeChannel(long peerId) {
+        awaitingMarker.remove(peerId);
+        return finishIfComplete();
+    }
+
+    synchronized LocalSnapshot finishIfComplete() {
+        if (!awaitingMarker.isEmpty() || reported) return null;
+        reported = true;
+        return state;
+    }
+}
@@ -0,0 +1,42 @@
+package ctu.dsv.semwork;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * One piece of a state transfer to a joining or reviving node.
+ * Every chunk carries the snapshot header (clock, and the shared variable with the timestamp and writer of the
+ * write that set it) plus a slice of the pending request queue.
+ */
+public class StateChunk implements Serializable {
+
+    @Serial
+    private static final long serialVersionUID = 2L;
+
+    public final long transferId;
+    public final int index;
+    public final boolean last;
+    public final int clock;
+    public final int sharedVariable;
+    public final int sharedVariableTimestamp;
+    public final long sharedVariableWriter;
+    public final List<Request> requests;
+
+    public StateChunk(long transferId, int index, boolean last, int clock, int sharedVariable, int sharedVariableTimestamp,
+                      long sharedVariableWriter, List<Request> requests) {
+        this.transferId = transferId;
+        this.index = index;
+        this.last = last;
+        this.clock = clock;
+        this.sharedVariable = sharedVariable;
+        this.sharedVariableTimestamp = sharedVariableTimestamp;
+        this.sharedVariableWriter = sharedVariableWriter;
+        this.requests = requests;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("{Transfer:%d, Chunk:%d%s, Requests:%d}", transferId, index, last ? " (last)" : "", requests.size());
+    }
+}
@@ -0,0 +1,54 @@
+package ctu.dsv.semwork;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Point-in-time copy of the state a joining node needs (shared variable and the contact's own pending requests).
+ * The copy is taken once under the node's locks and then served in fixed-size chunks,
+ * so the contact node never holds a lock for the duration of the transfer.
+ */
+class StateTransfer {
+    static final int CHUNK_SIZE = 128;
+    static final long EXPIRY_MS = 60_000;
+
+    final long id;
+    final long requesterId;
+    private final int clock;
+    private final int sharedVariable;
+    private final int sharedVariableTimestamp;
+    private final long sharedVariableWriter;
+    private final Request[] requests;
+    private final long createdAtMs = System.currentTimeMillis();
+
+    StateTransfer(long id, long requesterId, int clock, int sharedVariable, int sharedVariableTimestamp,
+                  long sharedVariableWriter, Request[] requests) {
+        this.id = id;
+        this.requesterId = requesterId;
+        this.clock = clock;
+        this.sharedVariable = sharedVariable;
+        this.sharedVariableTimestamp = sharedVariableTimestamp;
+        this.sharedVariableWriter = sharedVariableWriter;
+        this.requests = requests;
+    }
+
+    int chunkCount() {
+        return Math.max(1, (requests.length + CHUNK_SIZE - 1) / CHUNK_SIZE);
+    }
+
+    int requestCount() { return requests.length; }
+
+    StateChunk chunk(int index) throws RemoteException {
+        if (index < 0 || index >= chunkCount())
+            throw new RemoteException("State transfer " + id + " has no chunk " + index);
+        int from = Math.min(requests.length, index * CHUNK_SIZE);
+        int to = Math.min(requests.length, from + CHUNK_SIZE);
+        return new StateChunk(id, index, index == chunkCount() - 1, clock, sharedVariable, sharedVariableTimestamp,
+                sharedVariableWriter, new ArrayList<>(Arrays.asList(requests).subList(from, to)));
+    }
+
+    boolean isExpired(long nowMs) {
+        return nowMs - createdAtMs > EXPIRY_MS;
+    }
+}
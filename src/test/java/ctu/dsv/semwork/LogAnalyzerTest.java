@@ -0,0 +1,52 @@
+package ctu.dsv.semwork;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LogAnalyzerTest {
+
+    /** Two clean 3-node runs appended to the same files; each restart starts again from LC=0. */
+    @Test
+    void appendedRunsAreMergedSessionBySession() throws Exception {
+        String report = analyze(fixture("node_1001.log"), fixture("node_1002.log"), fixture("node_1003.log"));
+        assertTrue(report.contains("CS grants: 4"), report);
+        assertTrue(report.contains("Mutual exclusion: OK"), report);
+    }
+
+    @Test
+    void overlapWithinOneRunIsStillReported() throws Exception {
+        Path dir = Files.createTempDirectory("logs");
+        Path first = Files.write(dir.resolve("node_1.log"), List.of(
+                "[10:00:00.000][LC=0][Node 1] Node created with ID: 1",
+                "[10:00:01.000][LC=3][Node 1] ENTERED CRITICAL SECTION (My Timestamp: 2)",
+                "[10:00:02.000][LC=9][Node 1] LEFT CRITICAL SECTION"));
+        Path second = Files.write(dir.resolve("node_2.log"), List.of(
+                "[10:00:00.100][LC=0][Node 2] Node created with ID: 2",
+                "[10:00:01.500][LC=5][Node 2] ENTERED CRITICAL SECTION (My Timestamp: 1)",
+                "[10:00:01.600][LC=6][Node 2] LEFT CRITICAL SECTION"));
+        String report = analyze(first, second);
+        assertTrue(report.contains("LC=5: node 2 entered while node 1 was still inside"), report);
+    }
+
+    private static Path fixture(String name) throws URISyntaxException {
+        return Path.of(LogAnalyzerTest.class.getResource("/logs/restart/" + name).toURI());
+    }
+
+    private static String analyze(Path... files) throws Exception {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        LogAnalyzer analyzer = new LogAnalyzer(new PrintStream(buffer, true, StandardCharsets.UTF_8), null);
+        analyzer.analyze(new ArrayList<>(List.of(files)));
+        analyzer.printReport();
+        return buffer.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,66 @@
+package ctu.dsv.semwork;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MembershipTest {
+
+    @Test
+    void removedPeerHasNoSlot() {
+        Membership membership = new Membership();
+        membership.add(1001);
+        int slot = membership.add(1002);
+
+        assertEquals(slot, membership.remove(1002));
+        assertEquals(-1, membership.current().slotOf(1002));
+        assertEquals(-1, membership.remove(1002));
+        assertEquals(0, membership.current().slotOf(1001));
+        assertEquals(1, membership.current().size);
+    }
+
+    @Test
+    void lowestFreedSlotIsReused() {
+        Membership membership = new Membership();
+        for (long id = 1; id <= 5; id++) membership.add(id);
+        membership.remove(4);
+        membership.remove(2);
+
+        assertEquals(1, membership.add(6));
+        assertEquals(3, membership.add(7));
+        assertEquals(5, membership.add(8));
+        assertEquals(1, membership.current().slotOf(6));
+        assertEquals(3, membership.current().slotOf(7));
+    }
+
+    @Test
+    void addingMemberAgainKeepsSlotAndEpoch() {
+        Membership membership = new Membership();
+        membership.add(1001);
+        int slot = membership.add(1002);
+        long epoch = membership.current().epoch;
+
+        assertEquals(slot, membership.add(1002));
+        assertEquals(epoch, membership.current().epoch);
+        assertEquals(2, membership.current().size);
+    }
+
+    @Test
+    void coveredBySpansSeveralWords() {
+        Membership membership = new Membership();
+        for (long id = 0; id < 130; id++) assertEquals(id, membership.add(1000 + id));
+        Membership.View view = membership.current();
+        long[] bits = {-1L, -1L, 0b11L};
+
+        assertTrue(view.coveredBy(bits));
+        bits[1] &= ~(1L << 7); // slot 71
+        assertFalse(view.coveredBy(bits));
+        assertFalse(view.coveredBy(new long[]{-1L, -1L})); // slots 128 and 129 missing
+
+        membership.remove(1071);
+        assertTrue(membership.current().coveredBy(bits));
+        assertFalse(view.coveredBy(bits)); // views are immutable: the old epoch still needs slot 71
+    }
+}
@@ -0,0 +1,58 @@
+package ctu.dsv.semwork;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.rmi.RemoteException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReviveTest {
+
+    private final TestCluster cluster = new TestCluster();
+
+    /**
+     * A's request was acknowledged by B and C before A was killed; B and C then declared A dead and dropped it.
+     * After revive those acknowledgements are stale, so the request must be abandoned instead of granted.
+     */
+    @Test
+    void reviveAbandonsRequestsPeersHaveDiscarded() throws Exception {
+        NodeImpl a = cluster.start(6210);
+        NodeImpl b = cluster.start(6220);
+        NodeImpl c = cluster.start(6230);
+        b.joinNetwork("127.0.0.1", 6210);
+        c.joinNetwork("127.0.0.1", 6210);
+
+        b.enterCS();
+        CompletableFuture<Boolean> waiting = CompletableFuture.supplyAsync(() -> {
+            try { return a.tryEnterCS(10_000); } catch (RemoteException e) { throw new CompletionException(e); }
+        });
+        String requestOfA = "N:" + a.getNodeId();
+        TestCluster.await("B and C queued (and answered) A's request", () ->
+                b.getQueueStatus().contains(requestOfA) && c.getQueueStatus().contains(requestOfA));
+        a.kill();
+        c.detectDeadNodes();
+        a.revive();
+
+        ExecutionException abandoned = assertThrows(ExecutionException.class, () -> waiting.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(RequestAbandonedException.class, abandoned.getCause());
+        b.leaveCS();
+        assertTrue(c.tryEnterCS(3000), "C blocked by an abandoned request: " + c.getQueueStatus());
+        assertFalse(a.isInCriticalSection(), "A entered while C was inside");
+        c.leaveCS();
+        assertTrue(a.tryEnterCS(3000), "A blocked after revive: " + a.getQueueStatus());
+        a.leaveCS();
+    }
+
+    @AfterEach
+    void stop() throws Exception {
+        cluster.close();
+    }
+}
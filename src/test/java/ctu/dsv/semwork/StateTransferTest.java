@@ -0,0 +1,71 @@
+package ctu.dsv.semwork;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StateTransferTest {
+
+    private final TestCluster cluster = new TestCluster();
+
+    /** A's RELEASE is still on its way to the contact C when J joins; J must not inherit A's finished request. */
+    @Test
+    void joinerDoesNotInheritRequestWhoseReleaseIsInFlight() throws Exception {
+        NodeImpl a = cluster.start(6110);
+        NodeImpl c = cluster.start(6120);
+        NodeImpl j = cluster.start(6130);
+        c.joinNetwork("127.0.0.1", 6110);
+
+        a.setMessageDelayMs(1500);
+        a.enterCS();
+        a.leaveCS(); // the RELEASE to C is delayed by 1.5 s
+        j.joinNetwork("127.0.0.1", 6120);
+
+        assertEquals("[]", j.getQueueStatus());
+        assertTrue(j.tryEnterCS(3000), "joiner blocked by a released request: " + j.getQueueStatus());
+        j.leaveCS();
+    }
+
+    /** A is inside the CS and is not the contact; J learns about A's request from A itself and waits for it. */
+    @Test
+    void joinerWaitsForNodeInsideCriticalSection() throws Exception {
+        NodeImpl a = cluster.start(6140);
+        NodeImpl c = cluster.start(6150);
+        NodeImpl j = cluster.start(6160);
+        c.joinNetwork("127.0.0.1", 6140);
+
+        a.enterCS();
+        j.joinNetwork("127.0.0.1", 6150);
+
+        assertFalse(j.tryEnterCS(500), "joiner entered while another node was inside");
+        a.leaveCS();
+        assertTrue(j.tryEnterCS(3000), "joiner blocked after the holder left: " + j.getQueueStatus());
+        j.leaveCS();
+    }
+
+    /** The snapshot value keeps the timestamp of its write, so an older UPDATE arriving after the transfer is ignored. */
+    @Test
+    void staleUpdateAfterTransferDoesNotOverwriteSnapshotValue() throws Exception {
+        NodeImpl a = cluster.start(6170);
+        NodeImpl c = cluster.start(6180);
+        NodeImpl j = cluster.start(6190);
+        c.joinNetwork("127.0.0.1", 6170);
+
+        c.enterCS();
+        c.setSharedVariable(7);
+        c.leaveCS();
+        j.joinNetwork("127.0.0.1", 6180);
+        assertEquals(7, j.getSharedVariable());
+
+        j.updateSharedVariable(1, 1, a.getNodeId()); // an earlier write of A, delivered late
+        assertEquals(7, j.getSharedVariable());
+    }
+
+    @AfterEach
+    void stop() throws Exception {
+        cluster.close();
+    }
+}
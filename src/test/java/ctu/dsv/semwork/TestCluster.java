@@ -0,0 +1,49 @@
+package ctu.dsv.semwork;
+
+import java.rmi.NoSuchObjectException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.fail;
+
+/** Nodes of one test, each bound in its own RMI registry on 127.0.0.1; {@link #close} tears all of them down. */
+final class TestCluster implements AutoCloseable {
+    private static final long AWAIT_TIMEOUT_MS = 5_000;
+
+    private final List<NodeImpl> nodes = new ArrayList<>();
+    private final List<Registry> registries = new ArrayList<>();
+
+    /** Starts a node on the given RMI port; it logs to the console only, so no node_<id>.log lands in the tree. */
+    NodeImpl start(int port) throws Exception {
+        NodeImpl node = new NodeImpl(NodeImpl.generateId("127.0.0.1", port), false);
+        Registry registry = LocateRegistry.createRegistry(port);
+        registry.rebind(String.valueOf(port), node);
+        nodes.add(node);
+        registries.add(registry);
+        return node;
+    }
+
+    /** Polls until the condition holds, failing the test if it does not within a few seconds. */
+    static void await(String what, Condition condition) throws Exception {
+        long deadline = System.currentTimeMillis() + AWAIT_TIMEOUT_MS;
+        while (!condition.holds()) {
+            if (System.currentTimeMillis() > deadline) fail("Timed out waiting until " + what);
+            Thread.sleep(10);
+        }
+    }
+
+    @Override
+    public void close() throws NoSuchObjectException {
+        for (NodeImpl node : nodes) {
+            node.shutdown();
+            try { UnicastRemoteObject.unexportObject(node, true); } catch (NoSuchObjectException ignored) {} // killed
+        }
+        for (Registry registry : registries) UnicastRemoteObject.unexportObject(registry, true);
+    }
+
+    @FunctionalInterface
+    interface Condition { boolean holds() throws Exception; }
+}
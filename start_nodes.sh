@@ -29,6 +29,7 @@ fi
 
 # Locate the Fat JAR
 FAT_JAR_PATH=$(ls $(pwd)/target/*-jar-with-dependencies.jar | head -n 1)
+JAR_SUM=$(sha256sum ${FAT_JAR_PATH} | cut -d' ' -f1)
 echo "JAR created: $FAT_JAR_PATH"
 
 ### 3. DISTRIBUTE & START (REMOTE VMs)
@@ -42,22 +43,49 @@ for ID in $(seq 1 $NUM_NODES) ; do
   # A. Create Directory on Remote VM
   sshpass -p ${SSH_PASS} ssh -o StrictHostKeyChecking=no ${SSH_USER}@${TARGET_IP} "mkdir -p ${SEMWORK_HOMEDIR}/NODE_${ID}"
 
-  # B. Copy JAR to Remote VM
-  echo "  -> Copying JAR..."
-  sshpass -p ${SSH_PASS} scp -o StrictHostKeyChecking=no ${FAT_JAR_PATH} ${SSH_USER}@${TARGET_IP}:${SEMWORK_HOMEDIR}/NODE_${ID}/semwork.jar
+  # B. Copy JAR to Remote VM, unless it is unchanged (the build is reproducible, so an unchanged JAR keeps
+  #    its old modification time and the AppCDS archive below stays valid)
+  REMOTE_SUM=$(sshpass -p ${SSH_PASS} ssh -o StrictHostKeyChecking=no ${SSH_USER}@${TARGET_IP} "sha256sum ${SEMWORK_HOMEDIR}/NODE_${ID}/semwork.jar 2>/dev/null | cut -d' ' -f1")
+  if [ "${REMOTE_SUM}" = "${JAR_SUM}" ] ; then
+    echo "  -> JAR unchanged"
+  else
+    echo "  -> Copying JAR..."
+    sshpass -p ${SSH_PASS} scp -o StrictHostKeyChecking=no ${FAT_JAR_PATH} ${SSH_USER}@${TARGET_IP}:${SEMWORK_HOMEDIR}/NODE_${ID}/semwork.jar
+  fi
 
-  # C. Start Node in Tmux
+  # C. Stop the old node (if any) so its ports are free
+  sshpass -p ${SSH_PASS} ssh -o StrictHostKeyChecking=no ${SSH_USER}@${TARGET_IP} "tmux kill-session -t NODE_${ID} 2>/dev/null"
+
+  # D. AppCDS training run: starts the node once on its own ports (freed in step C), exits when ready and dumps
+  # the loaded classes. In training mode the node writes no node_<id>.log, so the real log stays clean.
+  # Done on the VM itself because the archive must match its JDK and the exact JAR path; skipped while
+  # the archive is newer than the JAR (delete semwork.jsa to force a new one, e.g. after a JDK update).
+  JAVA_OPTS=""
+  if [ "${USE_APPCDS}" = "1" ] ; then
+    sshpass -p ${SSH_PASS} ssh -o StrictHostKeyChecking=no ${SSH_USER}@${TARGET_IP} "cd ${SEMWORK_HOMEDIR}/NODE_${ID}/ && if [ semwork.jsa -nt semwork.jar ] ; then echo '  -> AppCDS archive up to date'; else echo '  -> Creating AppCDS archive...' && java -XX:ArchiveClassesAtExit=semwork.jsa -Dsemwork.exitAfterStartup=true -jar semwork.jar ${NODE_PORT[$ID]} > appcds.out 2>&1; fi"
+    JAVA_OPTS="-XX:SharedArchiveFile=semwork.jsa"
+  fi
+
+  # E. Start Node in Tmux
   echo "  -> Starting Application..."
-  # We kill old session if exists, then start new one
-  sshpass -p ${SSH_PASS} ssh -o StrictHostKeyChecking=no ${SSH_USER}@${TARGET_IP} "tmux kill-session -t NODE_${ID} 2>/dev/null; tmux new-session -d -s NODE_${ID}"
+  sshpass -p ${SSH_PASS} ssh -o StrictHostKeyChecking=no ${SSH_USER}@${TARGET_IP} "tmux new-session -d -s NODE_${ID}"
 
   # Send the java command to the tmux session
   # We set java.rmi.server.hostname so RMI works across VMs
-  CMD="cd ${SEMWORK_HOMEDIR}/NODE_${ID}/ && java -Djava.rmi.server.hostname=${TARGET_IP} -jar semwork.jar ${NODE_PORT[$ID]}"
+  CMD="cd ${SEMWORK_HOMEDIR}/NODE_${ID}/ && java ${JAVA_OPTS} -Djava.rmi.server.hostname=${TARGET_IP} -jar semwork.jar ${NODE_PORT[$ID]}"
 
   sshpass -p ${SSH_PASS} ssh -o StrictHostKeyChecking=no ${SSH_USER}@${TARGET_IP} "tmux send -t NODE_${ID} '${CMD}' ENTER"
 
   echo "  -> Node $ID started on $TARGET_IP (Ports: ${NODE_PORT[$ID]} / ${NODE_API_PORT[$ID]})"
 done
 
+# F. Wait until every node is bound in RMI (GET /ready answers 200)
+for ID in $(seq 1 $NUM_NODES) ; do
+  for TRY in $(seq 1 150) ; do
+    curl -sf http://${NODE_IP[$ID]}:${NODE_API_PORT[$ID]}/ready > /dev/null && break
+    sleep 0.2
+  done
+  curl -sf http://${NODE_IP[$ID]}:${NODE_API_PORT[$ID]}/ready > /dev/null && echo "Node $ID ready" || echo "Node $ID NOT ready after 30s"
+done
+
 echo "   DEPLOYMENT COMPLETE"
\ No newline at end of file